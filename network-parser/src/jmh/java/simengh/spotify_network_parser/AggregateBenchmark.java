@@ -0,0 +1,63 @@
+package simengh.spotify_network_parser;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Pair generation and edge-weight accumulation for one slice of already parsed playlists:
+// the quadratic loop of CoOccurrenceAccumulator.addPlaylist into the in-memory table, and the
+// buffer, sort and spill of the out-of-core ExternalPairAggregator
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AggregateBenchmark {
+    @Param({"1000"})
+    public int playlists;
+
+    @Param({"200000"})
+    public int tracks;
+
+    private SyntheticSlice slice;
+    private NodeDictionary nodes;
+    private List<int[]> trackIds;
+
+    @Setup(Level.Trial)
+    public void parseSlice() throws IOException {
+        slice = new SyntheticSlice(playlists, tracks);
+        nodes = new NodeDictionary();
+        trackIds = slice.readPlaylists(nodes);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSlice() throws IOException {
+        slice.delete();
+    }
+
+    @Benchmark
+    public long accumulate() {
+        CoOccurrenceAccumulator accumulator = new CoOccurrenceAccumulator(nodes, 1);
+        for (int[] playlist : trackIds) {
+            accumulator.addPlaylist(playlist, playlist.length);
+        }
+        return accumulator.edgeCount();
+    }
+
+    @Benchmark
+    public int spillSortedRuns() throws IOException {
+        ExternalPairAggregator aggregator = new ExternalPairAggregator(nodes, 64L << 20, slice.directory);
+        ExternalPairAggregator.RunBuffer buffer = aggregator.newRunBuffer(1);
+        for (int[] playlist : trackIds) {
+            buffer.addPlaylist(playlist, playlist.length);
+        }
+        buffer.spill();
+        int runs = aggregator.runCount();
+        // Merge into nothing so the run files are removed
+        aggregator.merge((source, target, weight) -> { });
+        return runs;
+    }
+}
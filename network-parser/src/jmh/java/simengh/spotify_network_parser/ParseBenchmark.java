@@ -0,0 +1,57 @@
+package simengh.spotify_network_parser;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// JSON playlist extraction: reading one slice into track ids with each input mode. The
+// dictionary is fresh for every iteration, so the first invocation interns every URI and
+// later ones measure lookups of known URIs, as when later slices are parsed.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({"1000"})
+    public int playlists;
+
+    @Param({"200000"})
+    public int tracks;
+
+    @Param({"STREAM", "MMAP"})
+    public String inputMode;
+
+    private SyntheticSlice slice;
+    private NodeDictionary nodes;
+    private PlaylistReader reader;
+
+    @Setup(Level.Trial)
+    public void createSlice() throws IOException {
+        slice = new SyntheticSlice(playlists, tracks);
+    }
+
+    @Setup(Level.Iteration)
+    public void createReader() {
+        nodes = new NodeDictionary();
+        reader = GraphMLGenerator.InputMode.valueOf(inputMode).createReader(GraphMLGenerator.NodeType.TRACK, nodes);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSlice() throws IOException {
+        slice.delete();
+    }
+
+    @Benchmark
+    public long readSlice() throws IOException {
+        long[] checksum = {0};
+        reader.read(slice.file.toString(), null, playlist -> {
+            for (int i = 0; i < playlist.trackCount; i++) {
+                checksum[0] += playlist.ids[0][i];
+            }
+        });
+        return checksum[0];
+    }
+}
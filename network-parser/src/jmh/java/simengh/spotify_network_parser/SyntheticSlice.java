@@ -0,0 +1,36 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// One synthetic slice file in a temporary directory, shared by the benchmarks
+class SyntheticSlice {
+    final Path directory;
+    final Path file;
+
+    SyntheticSlice(int playlists, int tracks) throws IOException {
+        directory = Files.createTempDirectory("mpd-bench");
+        file = new SyntheticSliceGenerator(tracks, 42).writeSlice(directory, 0, playlists);
+    }
+
+    // Parses the slice into a dictionary and one int[] of track ids per playlist
+    List<int[]> readPlaylists(NodeDictionary nodes) throws IOException {
+        List<int[]> playlists = new ArrayList<>();
+        new PlaylistReader("track_uri", nodes).read(file.toString(), null,
+                playlist -> playlists.add(java.util.Arrays.copyOf(playlist.ids[0], playlist.trackCount)));
+        return playlists;
+    }
+
+    void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
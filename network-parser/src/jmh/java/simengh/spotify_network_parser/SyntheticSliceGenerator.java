@@ -0,0 +1,172 @@
+package simengh.spotify_network_parser;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Writes MPD-style slice files with the same structure as the real dataset, so benchmarks run
+// without it. Playlist lengths are log-normal (median about 50, clamped to the MPD's 5..250
+// range, giving a mean near 66 as in the MPD) and tracks are drawn from a Zipf distribution
+// over the catalogue, so a few tracks are in many playlists and most are in a handful.
+// Every track belongs to one album and every album to one artist, also Zipf-distributed.
+// Output is deterministic for a given seed.
+class SyntheticSliceGenerator {
+    static final int DEFAULT_PLAYLISTS_PER_SLICE = 1000;
+    static final int DEFAULT_TRACK_COUNT = 200_000;
+
+    private static final String BASE62 = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final double LENGTH_MU = Math.log(50);
+    private static final double LENGTH_SIGMA = 0.75;
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    private final double[] trackCdf;
+    private final int[] trackAlbum;
+    private final int[] albumArtist;
+    private final long seed;
+
+    SyntheticSliceGenerator(int trackCount, long seed) {
+        this.seed = seed;
+        trackCdf = zipfCdf(trackCount);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int albumCount = Math.max(1, trackCount / 10);
+        int artistCount = Math.max(1, albumCount / 3);
+        double[] albumCdf = zipfCdf(albumCount);
+        double[] artistCdf = zipfCdf(artistCount);
+        trackAlbum = new int[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            trackAlbum[t] = sample(albumCdf, random);
+        }
+        albumArtist = new int[albumCount];
+        for (int a = 0; a < albumCount; a++) {
+            albumArtist[a] = sample(artistCdf, random);
+        }
+    }
+
+    // Writes the slice holding playlists [first, first + count) as mpd.slice.<first>-<last>.json
+    Path writeSlice(Path directory, int first, int count) throws IOException {
+        Files.createDirectories(directory);
+        String range = first + "-" + (first + count - 1);
+        Path path = directory.resolve("mpd.slice." + range + ".json");
+        SplittableRandom random = new SplittableRandom(seed ^ first);
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(out)) {
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("info").beginObject()
+                    .name("generated_on").value("synthetic")
+                    .name("slice").value(range)
+                    .name("version").value("v1")
+                    .endObject();
+            json.name("playlists").beginArray();
+            for (int pid = first; pid < first + count; pid++) {
+                writePlaylist(json, pid, random);
+            }
+            json.endArray();
+            json.endObject();
+        }
+        return path;
+    }
+
+    private void writePlaylist(JsonWriter json, int pid, SplittableRandom random) throws IOException {
+        int length = playlistLength(random);
+        json.beginObject();
+        json.name("name").value("playlist " + pid);
+        json.name("collaborative").value("false");
+        json.name("pid").value(pid);
+        json.name("modified_at").value(1500000000L + random.nextInt(1 << 26));
+        json.name("num_tracks").value(length);
+        json.name("num_followers").value(1 + random.nextInt(20));
+        json.name("tracks").beginArray();
+        long duration = 0;
+        for (int pos = 0; pos < length; pos++) {
+            int track = sample(trackCdf, random);
+            int album = trackAlbum[track];
+            int artist = albumArtist[album];
+            int trackDuration = 120_000 + random.nextInt(240_000);
+            duration += trackDuration;
+            json.beginObject();
+            json.name("pos").value(pos);
+            json.name("artist_name").value("Artist " + artist);
+            json.name("track_uri").value("spotify:track:" + base62Id(track, 1));
+            json.name("artist_uri").value("spotify:artist:" + base62Id(artist, 2));
+            json.name("track_name").value("Track " + track);
+            json.name("album_uri").value("spotify:album:" + base62Id(album, 3));
+            json.name("duration_ms").value(trackDuration);
+            json.name("album_name").value("Album " + album);
+            json.endObject();
+        }
+        json.endArray();
+        json.name("num_edits").value(1 + random.nextInt(30));
+        json.name("duration_ms").value(duration);
+        json.endObject();
+    }
+
+    private int playlistLength(SplittableRandom random) {
+        // Box-Muller for a standard normal sample
+        double normal = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+        long length = Math.round(Math.exp(LENGTH_MU + LENGTH_SIGMA * normal));
+        return (int) Math.max(5, Math.min(250, length));
+    }
+
+    private static double[] zipfCdf(int n) {
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int rank = 0; rank < n; rank++) {
+            total += 1.0 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cdf[rank] = total;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cdf[rank] /= total;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, SplittableRandom random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(cdf.length - 1, index >= 0 ? index : -index - 1);
+    }
+
+    // A 22-character base62 id like Spotify's, distinct per (kind, index)
+    private static String base62Id(int index, int kind) {
+        char[] id = new char[22];
+        long value = (long) index * 4 + kind;
+        long mixed = value * 0x9E3779B97F4A7C15L;
+        for (int i = 21; i >= 0; i--) {
+            if (i >= 12) {
+                id[i] = BASE62.charAt((int) (value % 62));
+                value /= 62;
+            } else {
+                id[i] = BASE62.charAt((int) Long.remainderUnsigned(mixed, 62));
+                mixed = Long.divideUnsigned(mixed, 62);
+            }
+        }
+        return new String(id);
+    }
+
+    // Writes slice files for offline runs of the generators:
+    // SyntheticSliceGenerator <directory> [slices] [playlists per slice] [tracks] [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticSliceGenerator <directory> [slices] [playlists per slice] [tracks] [seed]");
+            System.exit(1);
+        }
+        Path directory = Paths.get(args[0]);
+        int slices = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int playlists = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PLAYLISTS_PER_SLICE;
+        int tracks = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_TRACK_COUNT;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+        SyntheticSliceGenerator generator = new SyntheticSliceGenerator(tracks, seed);
+        for (int s = 0; s < slices; s++) {
+            System.out.println(generator.writeSlice(directory, s * playlists, playlists));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package simengh.spotify_network_parser;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Serialization of one slice's aggregated graph in each output format
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+    @Param({"1000"})
+    public int playlists;
+
+    @Param({"200000"})
+    public int tracks;
+
+    @Param({"GRAPHML", "GRAPHML_GZ", "BIN"})
+    public String format;
+
+    private SyntheticSlice slice;
+    private NodeDictionary nodes;
+    private CoOccurrenceAccumulator accumulator;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void aggregateSlice() throws IOException {
+        slice = new SyntheticSlice(playlists, tracks);
+        nodes = new NodeDictionary();
+        accumulator = new CoOccurrenceAccumulator(nodes, 1);
+        for (int[] playlist : slice.readPlaylists(nodes)) {
+            accumulator.addPlaylist(playlist, playlist.length);
+        }
+        output = slice.directory.resolve(format.equals("GRAPHML_GZ") ? "graph.graphml.gz"
+                : format.equals("BIN") ? "graph.bin" : "graph.graphml");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSlice() throws IOException {
+        slice.delete();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        GraphMLGenerator.OutputFormat outputFormat = format.equals("BIN")
+                ? GraphMLGenerator.OutputFormat.BIN : GraphMLGenerator.OutputFormat.GRAPHML;
+        try (GraphWriter writer = outputFormat.createWriter(output.toString(), 1, false)) {
+            writer.writeNodes(nodes);
+            accumulator.forEachEdge(writer::writeEdge);
+        }
+        return Files.size(output);
+    }
+}
@@ -0,0 +1,281 @@
+package simengh.spotify_network_parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Approximate co-occurrence counting in fixed memory, in two passes over the input:
+//
+//   1. every pair is added to a shared CountMinSketch, whose size is set up front;
+//   2. the input is read again and every pair whose estimate reaches minWeight becomes a
+//      candidate edge, weighted by its estimate.
+//
+// Candidates are held in one table per worker, sized so that all of them together hold at
+// most maxEdges entries. A table that fills up raises its worker's threshold until half of
+// it is free. The final graph keeps every candidate that passes the highest threshold any
+// worker reached; a worker only ever dropped candidates below its own threshold, so every
+// edge whose estimate reaches the final threshold is in the graph, whichever worker saw it.
+//
+// Playlists with more than maxPairs pairs can be subsampled: a random subset of m tracks is
+// taken, m being the largest size with at most maxPairs pairs, and each of its pairs counts
+// L(L-1) / (m(m-1)) times (rounded at random), which keeps every weight unbiased. The subset
+// is seeded by pid, so both passes see the same pairs.
+class ApproximateAggregator {
+    final NodeDictionary nodes;
+    private final CountMinSketch sketch;
+    private final int minWeight;
+    private final int maxEdges;
+    private final long maxPairs;
+    private final List<Collector> collectors = new ArrayList<>();
+    // Node occurrences of each counting worker, exact since they take no sketch memory
+    private final List<OccurrenceCounter> occurrenceCounters = new ArrayList<>();
+    private final LongAdder totalWeight = new LongAdder();
+    private final LongAdder playlists = new LongAdder();
+    private final LongAdder sampledPlaylists = new LongAdder();
+    private final LongAdder pairs = new LongAdder();
+    private final LongAdder sampledPairs = new LongAdder();
+    private int finalThreshold;
+
+    private interface PairVisitor {
+        void visit(long key, int weight);
+    }
+
+    ApproximateAggregator(NodeDictionary nodes, CountMinSketch sketch, int minWeight, int maxEdges, long maxPairs) {
+        this.nodes = nodes;
+        this.sketch = sketch;
+        this.minWeight = Math.max(1, minWeight);
+        this.maxEdges = maxEdges;
+        this.maxPairs = maxPairs;
+    }
+
+    // Handler of one worker in the counting pass
+    PlaylistReader.Handler newCounter() {
+        Sampler sampler = new Sampler();
+        OccurrenceCounter occurrences = new OccurrenceCounter();
+        synchronized (occurrenceCounters) {
+            occurrenceCounters.add(occurrences);
+        }
+        return playlist -> {
+            for (int i = 0; i < playlist.trackCount; i++) {
+                occurrences.add(playlist.ids[0][i]);
+            }
+            long[] weight = {0};
+            sampler.forEachPair(playlist, (key, w) -> {
+                sketch.add(key, w);
+                weight[0] += w;
+            });
+            totalWeight.add(weight[0]);
+            countPlaylist(playlist.trackCount, sampler.lastSampledPairs);
+        };
+    }
+
+    // Handler of one of workerCount workers in the collecting pass
+    PlaylistReader.Handler newCollector(int workerCount) {
+        Collector collector = new Collector(Math.max(1, maxEdges / workerCount));
+        synchronized (collectors) {
+            collectors.add(collector);
+        }
+        Sampler sampler = new Sampler();
+        return playlist -> sampler.forEachPair(playlist, (key, w) -> collector.offer(key));
+    }
+
+    // Joins the candidates of all workers into one accumulator holding the final edges
+    CoOccurrenceAccumulator finish() {
+        finalThreshold = minWeight;
+        long candidates = 0;
+        for (Collector collector : collectors) {
+            finalThreshold = Math.max(finalThreshold, collector.threshold);
+            candidates += collector.table.size();
+        }
+        LongIntHashMap edges = new LongIntHashMap((int) Math.min(candidates, maxEdges) + 1);
+        for (Collector collector : collectors) {
+            LongIntHashMap table = collector.table;
+            for (int slot = 0; slot < table.capacity(); slot++) {
+                long key = table.keyAt(slot);
+                if (key != 0 && table.valueAt(slot) >= finalThreshold) {
+                    edges.put(key, table.valueAt(slot));
+                }
+            }
+            // Release each table as soon as it is merged
+            collector.table = null;
+        }
+        collectors.clear();
+        CoOccurrenceAccumulator accumulator = new CoOccurrenceAccumulator(nodes, edges);
+        for (OccurrenceCounter counter : occurrenceCounters) {
+            accumulator.addOccurrences(counter.counts);
+        }
+        occurrenceCounters.clear();
+        return accumulator;
+    }
+
+    // Describes how far the weights can be off, after finish
+    void printErrorBounds() {
+        long total = totalWeight.sum();
+        System.out.println("\nApproximate counting:");
+        System.out.println(String.format("Sketch: %d x %d counters (%d KB)", sketch.depth(), sketch.width(),
+                sketch.memoryBytes() >> 10));
+        System.out.println("Total pair weight: " + total);
+        if (sampledPlaylists.sum() == 0) {
+            System.out.println(String.format("Weights are never too low, and with probability %.4f each is at most "
+                    + "%.1f too high (e/width = %.3g of the total)", 1 - sketch.failureProbability(),
+                    sketch.epsilon() * total, sketch.epsilon()));
+        } else {
+            // The sketch only adds to the sampled weights, which themselves scatter around the true ones
+            System.out.println(String.format("With probability %.4f the sketch adds at most %.1f to each sampled "
+                    + "weight (e/width = %.3g of the total)", 1 - sketch.failureProbability(),
+                    sketch.epsilon() * total, sketch.epsilon()));
+            System.out.println("Sampled weights are unbiased but can be too low or too high, most for pairs "
+                    + "that come mainly from subsampled playlists");
+        }
+        if (finalThreshold > minWeight) {
+            System.out.println("Weight threshold raised from " + minWeight + " to " + finalThreshold
+                    + " to keep at most " + maxEdges + " edges");
+        } else {
+            System.out.println("Weight threshold: " + finalThreshold);
+        }
+        if (sampledPlaylists.sum() > 0) {
+            System.out.println(String.format("Subsampled %d of %d playlists, counting %d of their %d pairs with "
+                    + "unbiased reweighting", sampledPlaylists.sum(), playlists.sum(), sampledPairs.sum(),
+                    pairs.sum()));
+        }
+    }
+
+    private void countPlaylist(int trackCount, long sampled) {
+        long all = (long) trackCount * (trackCount - 1) / 2;
+        playlists.increment();
+        if (sampled < all) {
+            sampledPlaylists.increment();
+            pairs.add(all);
+            sampledPairs.add(sampled);
+        }
+    }
+
+    // Enumerates the pairs of a playlist, all of them or a reweighted subset; one per worker
+    private class Sampler {
+        private int[] scratch = new int[256];
+        long lastSampledPairs;
+
+        void forEachPair(PlaylistReader.Playlist playlist, PairVisitor visitor) {
+            int[] ids = playlist.ids[0];
+            int count = playlist.trackCount;
+            long all = (long) count * (count - 1) / 2;
+            if (maxPairs <= 0 || all <= maxPairs) {
+                lastSampledPairs = all;
+                visitPairs(ids, count, 1.0, null, visitor);
+                return;
+            }
+
+            // Largest m with m(m-1)/2 <= maxPairs
+            int m = (int) ((1 + Math.sqrt(1 + 8.0 * maxPairs)) / 2);
+            while ((long) m * (m - 1) / 2 > maxPairs) {
+                m--;
+            }
+            m = Math.max(2, m);
+            if (scratch.length < count) {
+                scratch = new int[Math.max(count, 2 * scratch.length)];
+            }
+            System.arraycopy(ids, 0, scratch, 0, count);
+            SplittableRandom random = new SplittableRandom(playlist.pid * 0x9E3779B97F4A7C15L);
+            // Partial Fisher-Yates shuffle: the first m entries become a uniform random subset
+            for (int i = 0; i < m; i++) {
+                int j = i + random.nextInt(count - i);
+                int t = scratch[i];
+                scratch[i] = scratch[j];
+                scratch[j] = t;
+            }
+            lastSampledPairs = (long) m * (m - 1) / 2;
+            visitPairs(scratch, m, (double) count * (count - 1) / ((double) m * (m - 1)), random, visitor);
+        }
+
+        private void visitPairs(int[] ids, int count, double scale, SplittableRandom random, PairVisitor visitor) {
+            int whole = (int) scale;
+            double fraction = scale - whole;
+            for (int i = 0; i < count; i++) {
+                int node1 = ids[i];
+                for (int j = i + 1; j < count; j++) {
+                    int node2 = ids[j];
+                    // Skip self-edges
+                    if (node1 == node2) {
+                        continue;
+                    }
+                    int weight = random != null && random.nextDouble() < fraction ? whole + 1 : whole;
+                    if (weight > 0) {
+                        visitor.visit(CoOccurrenceAccumulator.edgeKey(node1, node2), weight);
+                    }
+                }
+            }
+        }
+    }
+
+    // Candidate edges of one worker with their estimates, at most capacity of them
+    private class Collector {
+        private final int capacity;
+        LongIntHashMap table;
+        int threshold = minWeight;
+
+        Collector(int capacity) {
+            this.capacity = capacity;
+            this.table = new LongIntHashMap(capacity + 1);
+        }
+
+        void offer(long key) {
+            if (table.get(key) != 0) {
+                return;
+            }
+            int estimate = sketch.estimate(key);
+            if (estimate >= threshold) {
+                table.put(key, estimate);
+                if (table.size() > capacity) {
+                    raiseThreshold();
+                }
+            }
+        }
+
+        // Raises the threshold to the estimate that keeps at most half of the capacity, then
+        // drops every candidate below it
+        private void raiseThreshold() {
+            int size = table.size();
+            long[] keys = new long[size];
+            int[] values = new int[size];
+            int n = 0;
+            for (int slot = 0; slot < table.capacity(); slot++) {
+                if (table.keyAt(slot) != 0) {
+                    keys[n] = table.keyAt(slot);
+                    values[n++] = table.valueAt(slot);
+                }
+            }
+            int[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int keep = Math.max(1, capacity / 2);
+            int newThreshold = sorted[size - keep];
+            // Ties at the cut can leave too many; then the cut moves above them
+            if (size - lowerBound(sorted, newThreshold) > keep) {
+                newThreshold++;
+            }
+            threshold = Math.max(threshold + 1, newThreshold);
+
+            table.clear();
+            for (int i = 0; i < size; i++) {
+                if (values[i] >= threshold) {
+                    table.put(keys[i], values[i]);
+                }
+            }
+        }
+
+        private int lowerBound(int[] sorted, int value) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sorted[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package simengh.spotify_network_parser;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.ResultCursor;
+import org.neo4j.driver.exceptions.RetryableException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Runs write queries asynchronously with at most maxInFlight transactions outstanding. submit
+// returns as soon as a transaction slot is free, so the producing thread keeps building the
+// next batch while earlier ones are on the wire, and blocks (backpressure) once every slot
+// is taken. A batch that fails with a retryable error is retried on its own after a growing
+// delay; any other failure, or running out of retries, fails the next submit or flush.
+// A retryable error can also arrive after a commit that did succeed, so every query sent
+// through the writer must be safe to run twice.
+class AsyncBatchWriter implements Closeable {
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 200;
+
+    // Where batches go: the Neo4j async session API, or an in-process stand-in
+    interface Target {
+        CompletionStage<Void> write(String query, Map<String, Object> params);
+    }
+
+    private final Target target;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final Semaphore slots;
+    private final ScheduledExecutorService retryScheduler;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong completedBatches = new AtomicLong();
+    private final AtomicLong retriedBatches = new AtomicLong();
+
+    AsyncBatchWriter(Target target, int maxInFlight, int maxRetries) {
+        this.target = target;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+        this.slots = new Semaphore(maxInFlight);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batch-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Runs each batch in its own explicit transaction on a fresh async session, committed once
+    // the result is consumed and rolled back on failure. Unlike a managed transaction this is
+    // attempted once, so retries are only the writer's own, bounded by maxRetries and counted.
+    static Target neo4j(Driver driver) {
+        return (query, params) -> {
+            AsyncSession session = driver.session(AsyncSession.class);
+            return session.beginTransactionAsync()
+                    .thenCompose(tx -> tx.runAsync(query, params)
+                            .thenCompose(ResultCursor::consumeAsync)
+                            .thenCompose(summary -> tx.commitAsync())
+                            .handle((ignored, error) -> error)
+                            .thenCompose(error -> error == null
+                                    ? CompletableFuture.<Throwable>completedFuture(null)
+                                    : tx.rollbackAsync().handle((ignored, rollbackError) -> error)))
+                    .handle((error, beginError) -> beginError != null ? beginError : error)
+                    .thenCompose(error -> session.closeAsync().thenCompose(ignored -> error == null
+                            ? CompletableFuture.<Void>completedFuture(null)
+                            : CompletableFuture.<Void>failedFuture(error)));
+        };
+    }
+
+    // Accepts every batch without a database, for dry runs of the pipeline
+    static Target discarding() {
+        return (query, params) -> CompletableFuture.completedFuture(null);
+    }
+
+    void submit(String query, Map<String, Object> params) throws IOException {
+        checkFailure();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a transaction slot");
+        }
+        attempt(query, params, 0);
+    }
+
+    private void attempt(String query, Map<String, Object> params, int retry) {
+        CompletionStage<Void> write;
+        try {
+            write = target.write(query, params);
+        } catch (RuntimeException e) {
+            write = CompletableFuture.failedFuture(e);
+        }
+        write.whenComplete((ignored, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause == null) {
+                completedBatches.incrementAndGet();
+                slots.release();
+            } else if (cause instanceof RetryableException && retry < maxRetries && failure.get() == null) {
+                retriedBatches.incrementAndGet();
+                long delay = INITIAL_RETRY_DELAY_MILLIS << Math.min(retry, 6);
+                retryScheduler.schedule(() -> attempt(query, params, retry + 1), delay, TimeUnit.MILLISECONDS);
+            } else {
+                failure.compareAndSet(null, cause);
+                slots.release();
+            }
+        });
+    }
+
+    // Waits until every submitted batch has completed
+    void flush() throws IOException {
+        try {
+            slots.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for transactions to finish");
+        }
+        slots.release(maxInFlight);
+        checkFailure();
+    }
+
+    long completedBatches() {
+        return completedBatches.get();
+    }
+
+    long retriedBatches() {
+        return retriedBatches.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            retryScheduler.shutdownNow();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IOException("Batch write failed", cause);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Writes a graph as a node URI dictionary plus a CSR adjacency, all little-endian so that
+// numpy can memmap every section directly. Layout:
+//
+//   offset  size  field
+//        0     8  magic "SPGRAPH\0"
+//        8     4  int32 format version (1)
+//       12     4  reserved
+//       16     8  int64 n, number of nodes
+//       24     8  int64 m, number of undirected edges (the CSR holds 2m entries)
+//       32     8  int64 file offset of uri_offsets, int64[n + 1]
+//       40     8  int64 file offset of uri_bytes, the UTF-8 URIs back to back
+//       48     8  int64 file offset of indptr, int64[n + 1]
+//       56     8  int64 file offset of indices, int32[2m], each row sorted by neighbor id
+//       64     8  int64 file offset of weights, int32[2m]
+//       72     8  int64 file offset of strengths, int64[n], or 0 if not stored
+//       80     8  int64 file offset of occurrences, int32[n], or 0 if not stored
+//       88    40  reserved, zero
+//
+// The URI of node v is uri_bytes[uri_offsets[v]:uri_offsets[v + 1]], and its neighbors and
+// edge weights are indices/weights[indptr[v]:indptr[v + 1]]. Sections start on 8-byte
+// boundaries. Loading in Python:
+//
+//   h = np.fromfile(path, dtype='<i8', count=9, offset=16)
+//   indptr = np.memmap(path, dtype='<i8', mode='r', offset=h[4], shape=(h[0] + 1,))
+//   indices = np.memmap(path, dtype='<i4', mode='r', offset=h[5], shape=(2 * h[1],))
+//   weights = np.memmap(path, dtype='<i4', mode='r', offset=h[6], shape=(2 * h[1],))
+//
+// Strengths and occurrences are written when node statistics are given; a node's degree is
+// its row length, indptr[v + 1] - indptr[v].
+//
+// Edges may be written in any order: they are spooled to a temporary file while node
+// degrees are counted, and the CSR arrays are filled from it when the writer is closed.
+class BinaryGraphWriter implements GraphWriter {
+    static final byte[] MAGIC = {'S', 'P', 'G', 'R', 'A', 'P', 'H', 0};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+
+    private static final int BUFFER_SIZE = 8 << 20;
+
+    private final Path outputPath;
+    private final Path edgeSpool;
+    private final ChannelOutput spool;
+
+    private String[] uris;
+    private int[] degrees;
+    private GraphStatistics statistics;
+    private long edgeCount;
+
+    BinaryGraphWriter(String outputFile) throws IOException {
+        outputPath = Paths.get(outputFile).toAbsolutePath();
+        Files.createDirectories(outputPath.getParent());
+        edgeSpool = Files.createTempFile(outputPath.getParent(), outputPath.getFileName().toString(), ".edges");
+        spool = new ChannelOutput(FileChannel.open(edgeSpool, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes) throws IOException {
+        int nodeCount = nodes.size();
+        uris = new String[nodeCount];
+        for (int id = 0; id < nodeCount; id++) {
+            uris[id] = nodes.uriOf(id);
+        }
+        degrees = new int[nodeCount];
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes, GraphStatistics statistics) throws IOException {
+        writeNodes(nodes);
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void writeEdge(int source, int target, int weight) throws IOException {
+        spool.putInt(source);
+        spool.putInt(target);
+        spool.putInt(weight);
+        degrees[source]++;
+        degrees[target]++;
+        edgeCount++;
+    }
+
+    @Override
+    public boolean writesNodesOnClose() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            spool.flush();
+            CsrGraph graph = readSpool();
+            if (statistics != null) {
+                write(outputPath, graph, statistics.strengths, statistics.occurrences);
+            } else {
+                write(outputPath, graph);
+            }
+        } finally {
+            spool.channel.close();
+        }
+    }
+
+    // Builds the CSR arrays from the spooled edges
+    private CsrGraph readSpool() throws IOException {
+        int nodeCount = uris.length;
+        int[] offsets = new int[nodeCount + 1];
+        for (int v = 0; v < nodeCount; v++) {
+            offsets[v + 1] = Math.addExact(offsets[v], degrees[v]);
+        }
+        int[] neighbors = new int[offsets[nodeCount]];
+        int[] weights = new int[offsets[nodeCount]];
+        // Reuse degrees as the next free position of each row
+        int[] next = degrees;
+        System.arraycopy(offsets, 0, next, 0, nodeCount);
+
+        ByteBuffer buffer = spool.buffer;
+        spool.channel.position(0);
+        long remaining = edgeCount;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity() / 12 * 12L, remaining * 12));
+            while (buffer.hasRemaining()) {
+                if (spool.channel.read(buffer) < 0) {
+                    throw new IOException("Edge spool ended early: " + edgeSpool);
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                int source = buffer.getInt();
+                int target = buffer.getInt();
+                int weight = buffer.getInt();
+                neighbors[next[source]] = target;
+                weights[next[source]++] = weight;
+                neighbors[next[target]] = source;
+                weights[next[target]++] = weight;
+                remaining--;
+            }
+        }
+        buffer.clear();
+        degrees = null;
+
+        CsrGraph graph = new CsrGraph(uris, offsets, neighbors, weights);
+        graph.sortRows();
+        return graph;
+    }
+
+    // Writes graph in the binary format through one large direct buffer
+    static void write(Path path, CsrGraph graph) throws IOException {
+        write(path, graph, null, null);
+    }
+
+    // Writes graph with the given node strengths and occurrences, either of which may be null
+    static void write(Path path, CsrGraph graph, long[] strengths, int[] occurrences) throws IOException {
+        int nodeCount = graph.nodeCount();
+        byte[][] uriBytes = new byte[nodeCount][];
+        long uriByteCount = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            uriBytes[v] = graph.uris[v].getBytes(StandardCharsets.UTF_8);
+            uriByteCount += uriBytes[v].length;
+        }
+        long entryCount = graph.neighbors.length;
+
+        long uriOffsetsAt = HEADER_SIZE;
+        long uriBytesAt = uriOffsetsAt + 8L * (nodeCount + 1);
+        long indptrAt = align(uriBytesAt + uriByteCount);
+        long indicesAt = indptrAt + 8L * (nodeCount + 1);
+        long weightsAt = align(indicesAt + 4L * entryCount);
+        long end = align(weightsAt + 4L * entryCount);
+        long strengthsAt = strengths != null ? end : 0;
+        if (strengths != null) {
+            end += 8L * nodeCount;
+        }
+        long occurrencesAt = occurrences != null ? end : 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelOutput out = new ChannelOutput(channel);
+            out.put(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(0);
+            out.putLong(nodeCount);
+            out.putLong(entryCount / 2);
+            out.putLong(uriOffsetsAt);
+            out.putLong(uriBytesAt);
+            out.putLong(indptrAt);
+            out.putLong(indicesAt);
+            out.putLong(weightsAt);
+            out.putLong(strengthsAt);
+            out.putLong(occurrencesAt);
+            out.pad(HEADER_SIZE - 88);
+
+            long uriOffset = 0;
+            out.putLong(uriOffset);
+            for (byte[] bytes : uriBytes) {
+                uriOffset += bytes.length;
+                out.putLong(uriOffset);
+            }
+            for (byte[] bytes : uriBytes) {
+                out.put(bytes);
+            }
+            out.pad(indptrAt - (uriBytesAt + uriByteCount));
+
+            for (int offset : graph.offsets) {
+                out.putLong(offset);
+            }
+            for (int neighbor : graph.neighbors) {
+                out.putInt(neighbor);
+            }
+            out.pad(weightsAt - (indicesAt + 4L * entryCount));
+            for (int weight : graph.weights) {
+                out.putInt(weight);
+            }
+            if (strengths != null || occurrences != null) {
+                out.pad(align(weightsAt + 4L * entryCount) - (weightsAt + 4L * entryCount));
+            }
+            if (strengths != null) {
+                for (long strength : strengths) {
+                    out.putLong(strength);
+                }
+            }
+            if (occurrences != null) {
+                for (int count : occurrences) {
+                    out.putInt(count);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    // Little-endian primitive output to a FileChannel through a large direct buffer
+    static class ChannelOutput {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        ChannelOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int written = 0;
+            while (written < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, length);
+                written += length;
+            }
+        }
+
+        void pad(long count) throws IOException {
+            for (long i = 0; i < count; i++) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                buffer.put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Co-occurrence edge weights collected by one worker. Nodes are interned into a shared
+// NodeDictionary and an undirected edge is stored as the packed long (minId << 32 | maxId),
+// so counting a pair is a single primitive hash table update.
+// Edges are split into shards by hash so that the accumulators of several workers can be
+// merged in parallel, one shard per thread. Each node's playlist occurrences are counted
+// alongside, for the node statistics.
+class CoOccurrenceAccumulator {
+    final NodeDictionary nodes;
+    private final LongIntHashMap[] shards;
+    private int[] occurrences = new int[0];
+
+    interface EdgeVisitor {
+        void visit(int source, int target, int weight) throws IOException;
+    }
+
+    CoOccurrenceAccumulator(NodeDictionary nodes, int shardCount) {
+        this.nodes = nodes;
+        this.shards = new LongIntHashMap[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new LongIntHashMap();
+        }
+    }
+
+    // Wraps edge weights counted elsewhere as a single shard
+    CoOccurrenceAccumulator(NodeDictionary nodes, LongIntHashMap edges) {
+        this.nodes = nodes;
+        this.shards = new LongIntHashMap[] {edges};
+    }
+
+    static long edgeKey(int node1, int node2) {
+        // Ensure consistent ordering for undirected edges
+        return node1 < node2
+                ? ((long) node1 << 32) | node2
+                : ((long) node2 << 32) | node1;
+    }
+
+    static int source(long edgeKey) {
+        return (int) (edgeKey >>> 32);
+    }
+
+    static int target(long edgeKey) {
+        return (int) edgeKey;
+    }
+
+    // Counts one co-occurrence for every pair of distinct nodes in the playlist
+    void addPlaylist(int[] nodeIds, int count) {
+        for (int i = 0; i < count; i++) {
+            int node1 = nodeIds[i];
+            countOccurrence(node1);
+            for (int j = i + 1; j < count; j++) {
+                int node2 = nodeIds[j];
+
+                // Skip self-edges
+                if (node1 == node2) {
+                    continue;
+                }
+
+                long key = edgeKey(node1, node2);
+                shardFor(key).addTo(key, 1);
+            }
+        }
+    }
+
+    // Counts one occurrence of the edge between two distinct nodes
+    void addEdge(int node1, int node2) {
+        long key = edgeKey(node1, node2);
+        shardFor(key).addTo(key, 1);
+    }
+
+    void countOccurrence(int node) {
+        if (node >= occurrences.length) {
+            occurrences = Arrays.copyOf(occurrences, Math.max(node + 1, Math.max(1024, occurrences.length << 1)));
+        }
+        occurrences[node]++;
+    }
+
+    // Adds occurrence counts made elsewhere, indexed by node id
+    void addOccurrences(int[] counts) {
+        if (counts.length > occurrences.length) {
+            occurrences = Arrays.copyOf(occurrences, counts.length);
+        }
+        for (int v = 0; v < counts.length; v++) {
+            occurrences[v] += counts[v];
+        }
+    }
+
+    // Playlist occurrences of nodes 0 to nodeCount - 1
+    int[] occurrences(int nodeCount) {
+        return Arrays.copyOf(occurrences, nodeCount);
+    }
+
+    // Adds the edge weights of a previously built graph whose node ids match this accumulator's
+    // dictionary, visiting each undirected edge once from its lower endpoint, and its
+    // occurrence counts if it has them
+    void addGraph(CsrGraph graph) {
+        if (graph.occurrences != null) {
+            addOccurrences(graph.occurrences);
+        }
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            for (int i = graph.offsets[v]; i < graph.offsets[v + 1]; i++) {
+                int neighbor = graph.neighbors[i];
+                if (neighbor > v) {
+                    long key = edgeKey(v, neighbor);
+                    shardFor(key).addTo(key, graph.weights[i]);
+                }
+            }
+        }
+    }
+
+    private LongIntHashMap shardFor(long key) {
+        return shards[shardIndex(key)];
+    }
+
+    private int shardIndex(long key) {
+        if (shards.length == 1) {
+            return 0;
+        }
+        // Use the high bits of a multiplicative hash so that shard selection does not
+        // correlate with the slot the shard's own table picks
+        long mixed = (key * 0x9E3779B97F4A7C15L) >>> 32;
+        return (int) ((mixed * shards.length) >>> 32);
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    void mergeShard(CoOccurrenceAccumulator other, int shard) {
+        shards[shard].addAll(other.shards[shard]);
+        other.shards[shard] = new LongIntHashMap();
+    }
+
+    // Drops the edges of one shard lighter than minWeight, moving the rest to a table sized
+    // for them so the memory of the dropped edges is released
+    void pruneShard(int shard, int minWeight) {
+        LongIntHashMap table = shards[shard];
+        int kept = 0;
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (table.keyAt(slot) != 0 && table.valueAt(slot) >= minWeight) {
+                kept++;
+            }
+        }
+        LongIntHashMap pruned = new LongIntHashMap(kept);
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            long key = table.keyAt(slot);
+            if (key != 0 && table.valueAt(slot) >= minWeight) {
+                pruned.put(key, table.valueAt(slot));
+            }
+        }
+        shards[shard] = pruned;
+    }
+
+    // Keeps only the edges among the topK heaviest of either endpoint, as EdgePruner does.
+    // Shards are fed to the per-node heaps one at a time and released as soon as they are
+    // read, so the unpruned edges and the kept ones are never all held at once.
+    void keepTopK(int topK) throws IOException {
+        LongIntHashMap[] kept = new LongIntHashMap[shards.length];
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = new LongIntHashMap();
+        }
+        EdgePruner pruner = new EdgePruner(new GraphWriter() {
+            @Override
+            public void writeNodes(NodeDictionary nodes) {
+            }
+
+            @Override
+            public void writeEdge(int source, int target, int weight) {
+                long key = edgeKey(source, target);
+                kept[shardIndex(key)].put(key, weight);
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 1, topK);
+        pruner.writeNodes(nodes);
+        for (int i = 0; i < shards.length; i++) {
+            LongIntHashMap shard = shards[i];
+            shards[i] = new LongIntHashMap();
+            for (int slot = 0; slot < shard.capacity(); slot++) {
+                long key = shard.keyAt(slot);
+                if (key != 0) {
+                    pruner.writeEdge(source(key), target(key), shard.valueAt(slot));
+                }
+            }
+        }
+        pruner.close();
+        System.arraycopy(kept, 0, shards, 0, shards.length);
+    }
+
+    void mergeOccurrences(CoOccurrenceAccumulator other) {
+        addOccurrences(other.occurrences);
+        other.occurrences = new int[0];
+    }
+
+    long edgeCount() {
+        long count = 0;
+        for (LongIntHashMap shard : shards) {
+            count += shard.size();
+        }
+        return count;
+    }
+
+    // Slots allocated across all shards, for load factor reporting
+    long tableCapacity() {
+        long capacity = 0;
+        for (LongIntHashMap shard : shards) {
+            capacity += shard.capacity();
+        }
+        return capacity;
+    }
+
+    // Visits every edge, resolving nothing: ids can be mapped back through nodes.uriOf
+    void forEachEdge(EdgeVisitor visitor) throws IOException {
+        for (LongIntHashMap shard : shards) {
+            for (int slot = 0; slot < shard.capacity(); slot++) {
+                long key = shard.keyAt(slot);
+                if (key != 0) {
+                    visitor.visit(source(key), target(key), shard.valueAt(slot));
+                }
+            }
+        }
+    }
+}
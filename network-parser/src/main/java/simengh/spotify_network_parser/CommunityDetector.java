@@ -0,0 +1,603 @@
+package simengh.spotify_network_parser;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.apache.commons.cli.*;
+
+// Parallel Louvain community detection over a graph written by GraphMLGenerator, replacing
+// igraph's community_multilevel() in final/network_analysis.ipynb. Each level alternates
+// local moving, where every node joins the neighboring community with the best modularity
+// gain, with aggregation of each community into one node of the next level's graph, until
+// modularity stops improving.
+// Local moving is parallelized by graph coloring, as in Lu, Halappanavar and Kalyanaraman's
+// parallel Louvain: nodes are greedily colored so that no two neighbors share a color, and
+// each sweep visits the colors in turn. The nodes of one color choose their moves in parallel
+// from the same assignment, so neighbors never move at once and cannot swap back and forth,
+// and the moves are applied before the next color. No choice sees a partial update, so the
+// result does not depend on the number of threads.
+public class CommunityDetector {
+    private static final double DEFAULT_RESOLUTION = 1.0;
+    private static final int DEFAULT_MAX_ITERATIONS = 50;
+    private static final double DEFAULT_TOLERANCE = 1e-6;
+    // Color classes smaller than this are processed on the calling thread
+    private static final int PARALLEL_THRESHOLD = 1024;
+    private static final GraphMLGenerator.OutputFormat DEFAULT_OUTPUT_FORMAT = GraphMLGenerator.OutputFormat.GRAPHML;
+
+    private final ForkJoinPool pool;
+    private final double resolution;
+    private final int maxIterations;
+    private final double tolerance;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // One level of the hierarchy: a symmetric graph whose nodes are the previous level's
+    // communities. A community's internal weight is a self-loop, stored once in its row.
+    static class Level {
+        final int nodeCount;
+        final int[] offsets;
+        final int[] neighbors;
+        // Edge weights: int weights of the input graph, long sums of them above it, or none
+        // when every edge counts 1
+        final int[] intWeights;
+        final long[] longWeights;
+        final long[] strengths;
+        final long totalStrength;
+
+        Level(int nodeCount, int[] offsets, int[] neighbors, int[] intWeights, long[] longWeights) {
+            this.nodeCount = nodeCount;
+            this.offsets = offsets;
+            this.neighbors = neighbors;
+            this.intWeights = intWeights;
+            this.longWeights = longWeights;
+            strengths = new long[nodeCount];
+            long total = 0;
+            for (int v = 0; v < nodeCount; v++) {
+                long strength = 0;
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    strength += weight(i);
+                }
+                strengths[v] = strength;
+                total += strength;
+            }
+            totalStrength = total;
+        }
+
+        long weight(int i) {
+            return longWeights != null ? longWeights[i] : intWeights != null ? intWeights[i] : 1;
+        }
+    }
+
+    // Per-thread map from community to the weight of the edges into it
+    private static class Scratch {
+        long[] weightTo = new long[0];
+        int[] touched = new int[0];
+        int touchedCount;
+
+        void ensureCapacity(int communities) {
+            if (weightTo.length < communities) {
+                weightTo = new long[communities];
+                touched = new int[communities];
+            }
+        }
+
+        void add(int community, long weight) {
+            if (weightTo[community] == 0) {
+                touched[touchedCount++] = community;
+            }
+            weightTo[community] += weight;
+        }
+
+        void clear() {
+            for (int i = 0; i < touchedCount; i++) {
+                weightTo[touched[i]] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+
+    CommunityDetector(ForkJoinPool pool, double resolution, int maxIterations, double tolerance) {
+        this.pool = pool;
+        this.resolution = resolution;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+    }
+
+    // Returns the community of every node, numbered from the largest community down
+    int[] detect(CsrGraph graph, boolean weighted) throws IOException {
+        Level level = new Level(graph.nodeCount(), graph.offsets, graph.neighbors, weighted ? graph.weights : null, null);
+        int[] communities = new int[graph.nodeCount()];
+        Arrays.setAll(communities, v -> v);
+        double modularity = modularity(level, communities, level.strengths.clone());
+
+        for (int depth = 0; ; depth++) {
+            long start = System.nanoTime();
+            int[] assignment = new int[level.nodeCount];
+            Arrays.setAll(assignment, v -> v);
+            int iterations = localMoving(level, assignment);
+            int communityCount = renumber(assignment);
+            double levelModularity = modularity(level, assignment, communityStrengths(level, assignment, communityCount));
+            System.out.printf("Level %d: %d nodes -> %d communities in %d sweeps, modularity %.6f (%.2f s)%n",
+                    depth, level.nodeCount, communityCount, iterations, levelModularity,
+                    (System.nanoTime() - start) / 1e9);
+            if (communityCount == level.nodeCount || levelModularity - modularity < tolerance) {
+                break;
+            }
+            for (int v = 0; v < communities.length; v++) {
+                communities[v] = assignment[communities[v]];
+            }
+            modularity = levelModularity;
+            level = aggregate(level, assignment, communityCount);
+        }
+        return bySize(communities);
+    }
+
+    // Moves nodes between communities until a sweep gains less than the tolerance, updating
+    // assignment in place; returns the number of sweeps
+    private int localMoving(Level level, int[] assignment) throws IOException {
+        int n = level.nodeCount;
+        int[] colorOffsets = new int[n + 1];
+        int[] nodesByColor = colorNodes(level, colorOffsets);
+        int colorCount = 0;
+        while (colorOffsets[colorCount] < n) {
+            colorCount++;
+        }
+
+        long[] totals = level.strengths.clone();
+        int[] next = new int[n];
+        double modularity = modularity(level, assignment, totals);
+
+        int sweep = 0;
+        while (sweep < maxIterations) {
+            sweep++;
+            int[] previous = assignment.clone();
+            long[] previousTotals = totals.clone();
+            long moves = 0;
+            for (int color = 0; color < colorCount; color++) {
+                int from = colorOffsets[color];
+                int to = colorOffsets[color + 1];
+                long[] currentTotals = totals;
+                if (to - from < PARALLEL_THRESHOLD) {
+                    for (int i = from; i < to; i++) {
+                        int v = nodesByColor[i];
+                        next[v] = bestCommunity(level, v, assignment, currentTotals);
+                    }
+                } else {
+                    run(() -> IntStream.range(from, to).parallel().forEach(i -> {
+                        int v = nodesByColor[i];
+                        next[v] = bestCommunity(level, v, assignment, currentTotals);
+                    }));
+                }
+                for (int i = from; i < to; i++) {
+                    int v = nodesByColor[i];
+                    int own = assignment[v];
+                    if (next[v] != own) {
+                        totals[own] -= level.strengths[v];
+                        totals[next[v]] += level.strengths[v];
+                        assignment[v] = next[v];
+                        moves++;
+                    }
+                }
+            }
+            if (moves == 0) {
+                break;
+            }
+            double nextModularity = modularity(level, assignment, totals);
+            if (nextModularity <= modularity) {
+                // Moves of one color can still cancel out through the community totals; keep
+                // the better assignment
+                System.arraycopy(previous, 0, assignment, 0, n);
+                totals = previousTotals;
+                break;
+            }
+            boolean converged = nextModularity - modularity < tolerance;
+            modularity = nextModularity;
+            if (converged) {
+                break;
+            }
+        }
+        return sweep;
+    }
+
+    // Greedy coloring in node order: each node takes the smallest color none of its earlier
+    // neighbors has. Returns the nodes grouped by color; the nodes of color c are at
+    // [colorOffsets[c], colorOffsets[c + 1]), and unused trailing offsets are n.
+    private static int[] colorNodes(Level level, int[] colorOffsets) {
+        int n = level.nodeCount;
+        int[] colors = new int[n];
+        // forbidden[c] == v + 1 when color c is taken by a neighbor of v
+        int[] forbidden = new int[n + 1];
+        int colorCount = 0;
+        for (int v = 0; v < n; v++) {
+            for (int i = level.offsets[v]; i < level.offsets[v + 1]; i++) {
+                int u = level.neighbors[i];
+                if (u < v) {
+                    forbidden[colors[u]] = v + 1;
+                }
+            }
+            int color = 0;
+            while (forbidden[color] == v + 1) {
+                color++;
+            }
+            colors[v] = color;
+            colorCount = Math.max(colorCount, color + 1);
+        }
+
+        for (int v = 0; v < n; v++) {
+            colorOffsets[colors[v] + 1]++;
+        }
+        for (int c = 0; c < n; c++) {
+            colorOffsets[c + 1] += colorOffsets[c];
+        }
+        int[] nodesByColor = new int[n];
+        int[] fill = Arrays.copyOf(colorOffsets, colorCount);
+        for (int v = 0; v < n; v++) {
+            nodesByColor[fill[colors[v]]++] = v;
+        }
+        return nodesByColor;
+    }
+
+    private int bestCommunity(Level level, int v, int[] assignment, long[] totals) {
+        Scratch s = scratch.get();
+        s.ensureCapacity(level.nodeCount);
+        for (int i = level.offsets[v]; i < level.offsets[v + 1]; i++) {
+            int u = level.neighbors[i];
+            if (u != v) {
+                s.add(assignment[u], level.weight(i));
+            }
+        }
+
+        int own = assignment[v];
+        double scale = resolution * level.strengths[v] / level.totalStrength;
+        int best = own;
+        double bestGain = s.weightTo[own] - scale * (totals[own] - level.strengths[v]);
+        for (int i = 0; i < s.touchedCount; i++) {
+            int community = s.touched[i];
+            if (community == own) {
+                continue;
+            }
+            double gain = s.weightTo[community] - scale * totals[community];
+            if (gain > bestGain || (gain == bestGain && best != own && community < best)) {
+                best = community;
+                bestGain = gain;
+            }
+        }
+        s.clear();
+        return best;
+    }
+
+    // Q = sum over communities of internal / 2m - resolution * (total / 2m)^2
+    private double modularity(Level level, int[] assignment, long[] totals) throws IOException {
+        long[] internal = {0};
+        run(() -> internal[0] = IntStream.range(0, level.nodeCount).parallel().mapToLong(v -> {
+            long sum = 0;
+            for (int i = level.offsets[v]; i < level.offsets[v + 1]; i++) {
+                if (assignment[level.neighbors[i]] == assignment[v]) {
+                    sum += level.weight(i);
+                }
+            }
+            return sum;
+        }).sum());
+        double m2 = level.totalStrength;
+        double expected = 0;
+        for (long total : totals) {
+            expected += (total / m2) * (total / m2);
+        }
+        return internal[0] / m2 - resolution * expected;
+    }
+
+    private static long[] communityStrengths(Level level, int[] assignment, int communityCount) {
+        long[] totals = new long[communityCount];
+        for (int v = 0; v < level.nodeCount; v++) {
+            totals[assignment[v]] += level.strengths[v];
+        }
+        return totals;
+    }
+
+    // Numbers communities densely in order of their first node; returns how many there are
+    private static int renumber(int[] assignment) {
+        int[] ids = new int[assignment.length];
+        Arrays.fill(ids, -1);
+        int count = 0;
+        for (int v = 0; v < assignment.length; v++) {
+            if (ids[assignment[v]] < 0) {
+                ids[assignment[v]] = count++;
+            }
+            assignment[v] = ids[assignment[v]];
+        }
+        return count;
+    }
+
+    // Builds the next level, one node per community, summing the weights between communities
+    private Level aggregate(Level level, int[] assignment, int communityCount) throws IOException {
+        // Members of each community, grouped by counting sort
+        int[] memberOffsets = new int[communityCount + 1];
+        for (int v = 0; v < level.nodeCount; v++) {
+            memberOffsets[assignment[v] + 1]++;
+        }
+        for (int c = 0; c < communityCount; c++) {
+            memberOffsets[c + 1] += memberOffsets[c];
+        }
+        int[] members = new int[level.nodeCount];
+        int[] fill = Arrays.copyOf(memberOffsets, communityCount);
+        for (int v = 0; v < level.nodeCount; v++) {
+            members[fill[assignment[v]]++] = v;
+        }
+
+        int[][] rowNeighbors = new int[communityCount][];
+        long[][] rowWeights = new long[communityCount][];
+        run(() -> IntStream.range(0, communityCount).parallel().forEach(c -> {
+            Scratch s = scratch.get();
+            s.ensureCapacity(communityCount);
+            for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+                int v = members[m];
+                for (int i = level.offsets[v]; i < level.offsets[v + 1]; i++) {
+                    s.add(assignment[level.neighbors[i]], level.weight(i));
+                }
+            }
+            int[] neighbors = Arrays.copyOf(s.touched, s.touchedCount);
+            Arrays.sort(neighbors);
+            long[] weights = new long[neighbors.length];
+            for (int i = 0; i < neighbors.length; i++) {
+                weights[i] = s.weightTo[neighbors[i]];
+            }
+            rowNeighbors[c] = neighbors;
+            rowWeights[c] = weights;
+            s.clear();
+        }));
+
+        int[] offsets = new int[communityCount + 1];
+        for (int c = 0; c < communityCount; c++) {
+            offsets[c + 1] = Math.addExact(offsets[c], rowNeighbors[c].length);
+        }
+        int[] neighbors = new int[offsets[communityCount]];
+        long[] weights = new long[offsets[communityCount]];
+        for (int c = 0; c < communityCount; c++) {
+            System.arraycopy(rowNeighbors[c], 0, neighbors, offsets[c], rowNeighbors[c].length);
+            System.arraycopy(rowWeights[c], 0, weights, offsets[c], rowWeights[c].length);
+        }
+        return new Level(communityCount, offsets, neighbors, null, weights);
+    }
+
+    // Renumbers communities from the largest down, ties going to the one with the lowest node
+    private static int[] bySize(int[] communities) {
+        int count = 0;
+        for (int community : communities) {
+            count = Math.max(count, community + 1);
+        }
+        int[] sizes = new int[count];
+        for (int community : communities) {
+            sizes[community]++;
+        }
+        Integer[] order = new Integer[count];
+        Arrays.setAll(order, c -> c);
+        Arrays.sort(order, (a, b) -> sizes[a] != sizes[b] ? Integer.compare(sizes[b], sizes[a]) : Integer.compare(a, b));
+        int[] rank = new int[count];
+        for (int r = 0; r < count; r++) {
+            rank[order[r]] = r;
+        }
+        int[] result = new int[communities.length];
+        for (int v = 0; v < communities.length; v++) {
+            result[v] = rank[communities[v]];
+        }
+        return result;
+    }
+
+    private void run(Runnable task) throws IOException {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while detecting communities", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to detect communities", e.getCause());
+        }
+    }
+
+    // Writes the community of every node, as "uri<TAB>community" lines for a .tsv path and
+    // otherwise as a little-endian int32 array in node order (numpy.fromfile(path, '<i4'))
+    static void writeCommunities(CsrGraph graph, int[] communities, String path) throws IOException {
+        if (path.endsWith(".tsv")) {
+            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+                for (int v = 0; v < communities.length; v++) {
+                    writer.write(graph.uris[v]);
+                    writer.write('\t');
+                    writer.write(Integer.toString(communities[v]));
+                    writer.newLine();
+                }
+            }
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(path)), 1 << 16)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int community : communities) {
+                if (!buffer.hasRemaining()) {
+                    out.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+                buffer.putInt(community);
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    // Writes the disjoint union of the communities' induced subgraphs: every node, and only
+    // the edges whose endpoints share a community
+    static long writePartitioned(CsrGraph graph, int[] communities, GraphWriter writer) throws IOException {
+        long edges = 0;
+        try (writer) {
+            writer.writeNodes(RandomWalkRecommender.dictionaryOf(graph));
+            for (int v = 0; v < graph.nodeCount(); v++) {
+                for (int i = graph.offsets[v]; i < graph.offsets[v + 1]; i++) {
+                    int u = graph.neighbors[i];
+                    if (u > v && communities[u] == communities[v]) {
+                        writer.writeEdge(v, u, graph.weights[i]);
+                        edges++;
+                    }
+                }
+            }
+        }
+        return edges;
+    }
+
+    // Prints the sizes and highest-degree node of the largest communities
+    private static void printSummary(CsrGraph graph, int[] communities) {
+        int count = 0;
+        for (int community : communities) {
+            count = Math.max(count, community + 1);
+        }
+        int[] sizes = new int[count];
+        int[] topNodes = new int[count];
+        Arrays.fill(topNodes, -1);
+        for (int v = 0; v < communities.length; v++) {
+            int c = communities[v];
+            sizes[c]++;
+            if (topNodes[c] < 0 || graph.degree(v) > graph.degree(topNodes[c])) {
+                topNodes[c] = v;
+            }
+        }
+        System.out.println("\nNumber of communities detected: " + count);
+        for (int c = 0; c < Math.min(10, count); c++) {
+            System.out.println(String.format("Community %d: %d nodes, top node %s with degree %d",
+                    c, sizes[c], graph.uris[topNodes[c]], graph.degree(topNodes[c])));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("g")
+                .longOpt("graph")
+                .desc("Graph written by GraphMLGenerator, in GRAPHML or BIN format")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("c")
+                .longOpt("communities")
+                .desc("Write the community of every node here: uri<TAB>community lines if the path ends in .tsv, "
+                        + "otherwise a little-endian int32 array in node order")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .desc("Write the graph with only the edges inside communities here")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("f")
+                .longOpt("format")
+                .desc("Format of --output: GRAPHML, BIN or NEO4J_CSV (default GRAPHML)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("z")
+                .longOpt("compress")
+                .desc("Gzip-compress NEO4J_CSV files (GraphML is compressed when the output path ends in .gz)")
+                .build());
+        options.addOption(Option.builder("r")
+                .longOpt("resolution")
+                .desc("Modularity resolution; higher values give smaller communities (default 1.0)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("unweighted")
+                .desc("Ignore edge weights, as community_multilevel() does in the notebook")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-iterations")
+                .desc("Most local moving sweeps per level (default " + DEFAULT_MAX_ITERATIONS + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("tolerance")
+                .desc("Stop when a sweep or level gains less modularity than this (default " + DEFAULT_TOLERANCE + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of worker threads (default: all processors)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("CommunityDetector", options);
+                System.exit(0);
+            }
+            if (!cmd.hasOption("graph")) {
+                System.err.println("Error: --graph is required");
+                formatter.printHelp("CommunityDetector", options);
+                System.exit(1);
+            }
+
+            String graphPath = cmd.getOptionValue("graph");
+            String communitiesPath = cmd.getOptionValue("communities");
+            String outputPath = cmd.getOptionValue("output");
+            GraphMLGenerator.OutputFormat outputFormat = cmd.hasOption("format") ?
+                GraphMLGenerator.OutputFormat.valueOf(cmd.getOptionValue("format").toUpperCase()) :
+                DEFAULT_OUTPUT_FORMAT;
+            boolean compress = cmd.hasOption("compress");
+            double resolution = Double.parseDouble(cmd.getOptionValue("resolution", String.valueOf(DEFAULT_RESOLUTION)));
+            boolean weighted = !cmd.hasOption("unweighted");
+            int maxIterations = Integer.parseInt(cmd.getOptionValue("max-iterations", String.valueOf(DEFAULT_MAX_ITERATIONS)));
+            double tolerance = Double.parseDouble(cmd.getOptionValue("tolerance", String.valueOf(DEFAULT_TOLERANCE)));
+            int threads = Integer.parseInt(cmd.getOptionValue("threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+            if (threads < 1 || maxIterations < 1) {
+                System.err.println("Error: threads and max iterations must be at least 1");
+                System.exit(1);
+            }
+            if (resolution <= 0) {
+                System.err.println("Error: resolution must be positive");
+                System.exit(1);
+            }
+
+            long loadStart = System.nanoTime();
+            CsrGraph graph = CsrGraph.read(graphPath);
+            System.out.println("Loaded " + graph.nodeCount() + " nodes and " + graph.edgeCount() + " edges in "
+                    + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+            if (graph.edgeCount() == 0) {
+                System.err.println("Error: The graph has no edges");
+                System.exit(1);
+            }
+
+            int[] communities;
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                communities = new CommunityDetector(pool, resolution, maxIterations, tolerance).detect(graph, weighted);
+            } finally {
+                pool.shutdown();
+            }
+            printSummary(graph, communities);
+
+            if (communitiesPath != null) {
+                writeCommunities(graph, communities, communitiesPath);
+                System.out.println("\nCommunities written to: " + communitiesPath);
+            }
+            if (outputPath != null) {
+                long edges = writePartitioned(graph, communities, outputFormat.createWriter(outputPath, threads, compress));
+                System.out.println("Partitioned graph with " + edges + " edges written to: " + outputPath);
+            }
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("CommunityDetector", options);
+            System.exit(1);
+        }
+    }
+}
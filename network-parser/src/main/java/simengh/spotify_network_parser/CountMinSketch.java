@@ -0,0 +1,75 @@
+package simengh.spotify_network_parser;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Count-Min sketch over packed edge keys: depth rows of width counters, every key adding its
+// weight to one counter per row. The estimate of a key is the smallest of its counters, so
+// it never undercounts, and with probability 1 - e^-depth it overcounts by at most
+// e / width times the total weight added. Memory is fixed at 4 * depth * width bytes.
+// Counters are updated atomically, so all workers can share one sketch.
+class CountMinSketch {
+    private final int depth;
+    private final int width;
+    private final AtomicIntegerArray counters;
+
+    // Sizes the rows to fit in about memoryBytes; the width is a power of two
+    CountMinSketch(int depth, long memoryBytes) {
+        long perRow = Math.max(16, Math.min(memoryBytes / 4 / depth, (Integer.MAX_VALUE - 8) / depth));
+        this.depth = depth;
+        this.width = Integer.highestOneBit((int) perRow);
+        this.counters = new AtomicIntegerArray(depth * width);
+    }
+
+    void add(long key, int weight) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int row = 0; row < depth; row++) {
+            counters.getAndAdd(row * width + ((h1 + row * h2) & (width - 1)), weight);
+        }
+    }
+
+    int estimate(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(row * width + ((h1 + row * h2) & (width - 1))));
+        }
+        return estimate;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    int width() {
+        return width;
+    }
+
+    long memoryBytes() {
+        return 4L * depth * width;
+    }
+
+    // Bound on the overcount of any estimate, as a fraction of the total weight added
+    double epsilon() {
+        return Math.E / width;
+    }
+
+    // Probability that an estimate exceeds that bound
+    double failureProbability() {
+        return Math.exp(-depth);
+    }
+
+    // The row indices come from two halves of one 64-bit hash (Kirsch-Mitzenmacher), which
+    // keeps the rows as independent as the analysis needs at the cost of a single mix
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
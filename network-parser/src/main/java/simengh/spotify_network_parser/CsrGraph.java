@@ -0,0 +1,249 @@
+package simengh.spotify_network_parser;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// Undirected weighted graph in compressed sparse row form: the neighbors of node v are
+// neighbors[offsets[v] .. offsets[v + 1]), sorted by id, with the matching edge weights at
+// the same positions in weights. Every edge appears once in the row of each endpoint.
+class CsrGraph {
+    final String[] uris;
+    final int[] offsets;
+    final int[] neighbors;
+    final int[] weights;
+    // Playlist occurrences of every node if the graph file stores them, otherwise null
+    int[] occurrences;
+
+    CsrGraph(String[] uris, int[] offsets, int[] neighbors, int[] weights) {
+        this.uris = uris;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.weights = weights;
+    }
+
+    int nodeCount() {
+        return uris.length;
+    }
+
+    long edgeCount() {
+        return neighbors.length / 2;
+    }
+
+    int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    // Sorts every row by neighbor id, carrying the weights along
+    void sortRows() {
+        long[] scratch = new long[0];
+        for (int v = 0; v < uris.length; v++) {
+            int start = offsets[v];
+            int degree = offsets[v + 1] - start;
+            if (degree > scratch.length) {
+                scratch = new long[Math.max(degree, scratch.length << 1)];
+            }
+            for (int i = 0; i < degree; i++) {
+                scratch[i] = ((long) neighbors[start + i] << 32) | (weights[start + i] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(scratch, 0, degree);
+            for (int i = 0; i < degree; i++) {
+                neighbors[start + i] = (int) (scratch[i] >>> 32);
+                weights[start + i] = (int) scratch[i];
+            }
+        }
+    }
+
+    // Loads a graph in either output format of GraphMLGenerator, telling them apart by the
+    // binary magic number
+    static CsrGraph read(String path) throws IOException {
+        byte[] magic = new byte[BinaryGraphWriter.MAGIC.length];
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            if (in.readNBytes(magic, 0, magic.length) == magic.length
+                    && Arrays.equals(magic, BinaryGraphWriter.MAGIC)) {
+                return load(path);
+            }
+        }
+        return loadGraphML(path);
+    }
+
+    // Loads a graph written by BinaryGraphWriter
+    static CsrGraph load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryGraphWriter.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[BinaryGraphWriter.MAGIC.length];
+            header.get(0, magic);
+            if (!Arrays.equals(magic, BinaryGraphWriter.MAGIC)) {
+                throw new IOException("Not a binary graph file: " + path);
+            }
+            if (header.getInt(8) != BinaryGraphWriter.VERSION) {
+                throw new IOException("Unsupported binary graph version " + header.getInt(8) + " in " + path);
+            }
+            int nodeCount = Math.toIntExact(header.getLong(16));
+            int entryCount = Math.toIntExact(2 * header.getLong(24));
+            long uriOffsetsAt = header.getLong(32);
+            long uriBytesAt = header.getLong(40);
+            long indptrAt = header.getLong(48);
+            long indicesAt = header.getLong(56);
+            long weightsAt = header.getLong(64);
+
+            long[] uriOffsets = readLongs(channel, uriOffsetsAt, nodeCount + 1);
+            String[] uris = new String[nodeCount];
+            MappedByteBuffer uriBytes = channel.map(FileChannel.MapMode.READ_ONLY, uriBytesAt, uriOffsets[nodeCount]);
+            for (int v = 0; v < nodeCount; v++) {
+                byte[] bytes = new byte[(int) (uriOffsets[v + 1] - uriOffsets[v])];
+                uriBytes.get((int) uriOffsets[v], bytes);
+                uris[v] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            long[] indptr = readLongs(channel, indptrAt, nodeCount + 1);
+            int[] offsets = new int[nodeCount + 1];
+            for (int v = 0; v <= nodeCount; v++) {
+                offsets[v] = Math.toIntExact(indptr[v]);
+            }
+            int[] neighbors = readInts(channel, indicesAt, entryCount);
+            int[] weights = readInts(channel, weightsAt, entryCount);
+            CsrGraph graph = new CsrGraph(uris, offsets, neighbors, weights);
+            long occurrencesAt = header.getLong(80);
+            if (occurrencesAt != 0) {
+                graph.occurrences = readInts(channel, occurrencesAt, nodeCount);
+            }
+            return graph;
+        }
+    }
+
+    // Loads an undirected GraphML graph, gzip-compressed if the path ends in .gz. Edge weights
+    // come from the edge attribute named "weight" and default to 1.
+    static CsrGraph loadGraphML(String path) throws IOException {
+        NodeDictionary nodes = new NodeDictionary();
+        int[] edges = new int[3 << 10];
+        int edgeCount = 0;
+
+        InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(path)), 1 << 16);
+        if (path.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        try (InputStream input = in) {
+            XMLStreamReader xml = XMLInputFactory.newFactory().createXMLStreamReader(input);
+            String weightKey = null;
+            int source = -1;
+            int target = -1;
+            int weight = 1;
+            boolean inWeight = false;
+            StringBuilder text = new StringBuilder();
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (xml.getLocalName()) {
+                        case "key":
+                            if ("weight".equals(xml.getAttributeValue(null, "attr.name"))
+                                    && !"node".equals(xml.getAttributeValue(null, "for"))) {
+                                weightKey = xml.getAttributeValue(null, "id");
+                            }
+                            break;
+                        case "node":
+                            nodes.idOf(xml.getAttributeValue(null, "id"));
+                            break;
+                        case "edge":
+                            source = nodes.idOf(xml.getAttributeValue(null, "source"));
+                            target = nodes.idOf(xml.getAttributeValue(null, "target"));
+                            weight = 1;
+                            break;
+                        case "data":
+                            inWeight = source >= 0 && weightKey != null
+                                    && weightKey.equals(xml.getAttributeValue(null, "key"));
+                            text.setLength(0);
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS && inWeight) {
+                    text.append(xml.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (inWeight && xml.getLocalName().equals("data")) {
+                        weight = (int) Double.parseDouble(text.toString().trim());
+                        inWeight = false;
+                    } else if (xml.getLocalName().equals("edge")) {
+                        if (source != target) {
+                            if (edgeCount + 3 > edges.length) {
+                                edges = Arrays.copyOf(edges, Math.multiplyExact(edges.length, 2));
+                            }
+                            edges[edgeCount++] = source;
+                            edges[edgeCount++] = target;
+                            edges[edgeCount++] = weight;
+                        }
+                        source = -1;
+                    }
+                }
+            }
+            xml.close();
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Failed to parse GraphML file " + path, e);
+        }
+
+        int nodeCount = nodes.size();
+        String[] uris = new String[nodeCount];
+        int[] offsets = new int[nodeCount + 1];
+        for (int v = 0; v < nodeCount; v++) {
+            uris[v] = nodes.uriOf(v);
+        }
+        for (int i = 0; i < edgeCount; i += 3) {
+            offsets[edges[i] + 1]++;
+            offsets[edges[i + 1] + 1]++;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            offsets[v + 1] = Math.addExact(offsets[v + 1], offsets[v]);
+        }
+        int[] neighbors = new int[offsets[nodeCount]];
+        int[] weights = new int[offsets[nodeCount]];
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        for (int i = 0; i < edgeCount; i += 3) {
+            int source = edges[i];
+            int target = edges[i + 1];
+            neighbors[next[source]] = target;
+            weights[next[source]++] = edges[i + 2];
+            neighbors[next[target]] = source;
+            weights[next[target]++] = edges[i + 2];
+        }
+        CsrGraph graph = new CsrGraph(uris, offsets, neighbors, weights);
+        graph.sortRows();
+        return graph;
+    }
+
+    private static long[] readLongs(FileChannel channel, long position, int count) throws IOException {
+        long[] values = new long[count];
+        // Map in chunks so that sections over 2 GB can be read
+        int chunk = 1 << 27;
+        for (int start = 0; start < count; start += chunk) {
+            int length = Math.min(chunk, count - start);
+            channel.map(FileChannel.MapMode.READ_ONLY, position + 8L * start, 8L * length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(values, start, length);
+        }
+        return values;
+    }
+
+    private static int[] readInts(FileChannel channel, long position, int count) throws IOException {
+        int[] values = new int[count];
+        int chunk = 1 << 28;
+        for (int start = 0; start < count; start += chunk) {
+            int length = Math.min(chunk, count - start);
+            channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * start, 4L * length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values, start, length);
+        }
+        return values;
+    }
+}
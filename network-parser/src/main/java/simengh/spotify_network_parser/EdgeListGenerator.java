@@ -1,13 +1,6 @@
 package simengh.spotify_network_parser;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.stream.JsonReader;
-
 import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
@@ -15,26 +8,137 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.cli.*;
+
 public class EdgeListGenerator {
+    // Default values
+    private static final String DEFAULT_DATA_DIR = "/Users/simeng/local_dev/CMU_networks_project/dataset/data";
+    private static final int DEFAULT_START_INDEX = 0;
+    private static final int DEFAULT_END_INDEX = 1;  // only use first 2 files
+    private static final String DEFAULT_RAW_OUTPUT = "edge_list.txt";
+    private static final String DEFAULT_WEIGHTED_PREFIX = "edge_list";
+    private static final int DEFAULT_SHARDS = 1;
+    private static final int DEFAULT_THREADS = 1;
+
     public static void main(String[] args) throws IOException {
-        String dataDir = "/Users/simeng/local_dev/CMU_networks_project/dataset/data";
-
-        // Get all JSON files in the data directory
-        List<String> inputFiles = new ArrayList<>();
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dataDir))) {
-            for (Path path : stream) {
-                if (path.toString().endsWith(".json")) {
-                    inputFiles.add(path.toString());
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("d")
+                .longOpt("directory")
+                .desc("Input directory containing JSON files")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("s")
+                .longOpt("start")
+                .desc("Start index of files to process")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("e")
+                .longOpt("end")
+                .desc("End index of files to process")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .desc("Output file of raw pairs, or the path prefix of the --weighted files")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("w")
+                .longOpt("weighted")
+                .desc("Write aggregated int-id edges with weights plus a node dictionary instead of raw URI pairs")
+                .build());
+        options.addOption(Option.builder("n")
+                .longOpt("shards")
+                .desc("Split --weighted edges into this many files by source node (default 1)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("z")
+                .longOpt("compress")
+                .desc("Gzip-compress the --weighted files")
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of worker threads used to parse input files in --weighted mode (default 1)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("m")
+                .longOpt("mem-budget")
+                .desc("Aggregate --weighted edges out of core within this many bytes, e.g. 512m or 4g")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("temp-dir")
+                .desc("Directory for the sorted runs written in --mem-budget mode (default: system temp)")
+                .hasArg()
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("EdgeListGenerator", options);
+                System.exit(0);
+            }
+
+            String dataDir = cmd.getOptionValue("directory", DEFAULT_DATA_DIR);
+            int startIndex = Integer.parseInt(cmd.getOptionValue("start", String.valueOf(DEFAULT_START_INDEX)));
+            int endIndex = Integer.parseInt(cmd.getOptionValue("end", String.valueOf(DEFAULT_END_INDEX)));
+            boolean weighted = cmd.hasOption("weighted");
+            String output = cmd.getOptionValue("output", weighted ? DEFAULT_WEIGHTED_PREFIX : DEFAULT_RAW_OUTPUT);
+            int shards = Integer.parseInt(cmd.getOptionValue("shards", String.valueOf(DEFAULT_SHARDS)));
+            boolean compress = cmd.hasOption("compress");
+            int threads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(DEFAULT_THREADS)));
+            long memoryBudget = cmd.hasOption("mem-budget") ? GraphMLGenerator.parseSize(cmd.getOptionValue("mem-budget")) : 0;
+            Path tempDir = Paths.get(cmd.getOptionValue("temp-dir", System.getProperty("java.io.tmpdir")));
+
+            if (shards < 1 || threads < 1) {
+                System.err.println("Error: shards and threads must be at least 1");
+                System.exit(1);
+            }
+
+            // Get all JSON files in the data directory
+            List<String> inputFiles = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dataDir))) {
+                for (Path path : stream) {
+                    if (path.toString().endsWith(".json")) {
+                        inputFiles.add(path.toString());
+                    }
                 }
             }
-        }
-        String edgeListFile = "edge_list.txt";
+            Collections.sort(inputFiles);
 
-        // only use first 2 files
-        inputFiles = inputFiles.subList(0, 2);
+            if (startIndex < 0 || endIndex >= inputFiles.size() || startIndex > endIndex) {
+                System.err.println("Error: Invalid file indices. Valid range is 0 to " + (inputFiles.size() - 1));
+                System.exit(1);
+            }
+            inputFiles = inputFiles.subList(startIndex, endIndex + 1);
 
+            if (weighted) {
+                writeWeighted(inputFiles, output, shards, compress, threads, memoryBudget, tempDir);
+            } else {
+                writeRaw(inputFiles, output);
+            }
+            System.out.println("\nProcessing complete.");
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("EdgeListGenerator", options);
+            System.exit(1);
+        }
+    }
+
+    // Writes every pair of tracks in every playlist as two URIs, duplicates included
+    private static void writeRaw(List<String> inputFiles, String edgeListFile) throws IOException {
         // Initialize progress tracking variables
         int totalFiles = inputFiles.size();
         int filesProcessed = 0;
@@ -49,45 +153,63 @@ public class EdgeListGenerator {
                 printProgressBar(filesProcessed, totalFiles);
             }
         }
-        System.out.println("\nProcessing complete.");
     }
 
-    private static void processFile(String inputFile, BufferedWriter writer) throws IOException {
-        Gson gson = new Gson();
-        try (JsonReader reader = new JsonReader(new FileReader(inputFile))) {
-            reader.beginObject(); // Start reading the JSON object
-
-            while (reader.hasNext()) {
-                String name = reader.nextName();
-                if ("playlists".equals(name)) {
-                    reader.beginArray(); // Start reading the playlists array
-                    while (reader.hasNext()) {
-                        JsonObject playlistObject = gson.fromJson(reader, JsonObject.class);
-                        processPlaylist(playlistObject, writer);
-                    }
-                    reader.endArray();
-                } else {
-                    reader.skipValue(); // Skip other fields (e.g., "info")
+    // Counts pairs the way GraphMLGenerator does and streams each distinct edge once, with its
+    // weight, to an EdgeListWriter
+    private static void writeWeighted(List<String> inputFiles, String prefix, int shards, boolean compress,
+                                      int threads, long memoryBudget, Path tempDir) throws IOException {
+        GraphMLGenerator.NodeType nodeType = GraphMLGenerator.NodeType.TRACK;
+        GraphMLGenerator.InputMode inputMode = GraphMLGenerator.InputMode.STREAM;
+        NodeDictionary trackDictionary = new NodeDictionary();
+        try (EdgeListWriter writer = new EdgeListWriter(prefix, shards, compress)) {
+            if (memoryBudget > 0) {
+                Files.createDirectories(tempDir);
+                ExternalPairAggregator aggregator = new ExternalPairAggregator(trackDictionary, memoryBudget, tempDir);
+                List<ExternalPairAggregator.RunBuffer> buffers = Collections.synchronizedList(new ArrayList<>());
+                GraphMLGenerator.parseFiles(inputFiles, trackDictionary, nodeType, inputMode, threads, (worker, workerCount) -> {
+                    ExternalPairAggregator.RunBuffer buffer = aggregator.newRunBuffer(workerCount);
+                    buffers.add(buffer);
+                    return playlist -> buffer.addPlaylist(playlist.ids[0], playlist.trackCount);
+                });
+                for (ExternalPairAggregator.RunBuffer buffer : buffers) {
+                    buffer.spill();
                 }
+                writer.writeNodes(trackDictionary);
+                aggregator.merge(writer::writeEdge);
+            } else {
+                CoOccurrenceAccumulator[] accumulators =
+                        new CoOccurrenceAccumulator[Math.max(1, Math.min(threads, inputFiles.size()))];
+                GraphMLGenerator.parseFiles(inputFiles, trackDictionary, nodeType, inputMode, threads, (worker, workerCount) -> {
+                    CoOccurrenceAccumulator local = new CoOccurrenceAccumulator(trackDictionary, workerCount);
+                    accumulators[worker] = local;
+                    return playlist -> local.addPlaylist(playlist.ids[0], playlist.trackCount);
+                });
+                CoOccurrenceAccumulator accumulator = GraphMLGenerator.mergeAccumulators(accumulators);
+                writer.writeNodes(trackDictionary);
+                accumulator.forEachEdge(writer::writeEdge);
             }
-            reader.endObject();
         }
+        System.out.println("Wrote " + trackDictionary.size() + " nodes to " + prefix + ".nodes.tsv" + (compress ? ".gz" : ""));
     }
 
-    private static void processPlaylist(JsonObject playlistObject, BufferedWriter writer) throws IOException {
-        JsonArray tracksArray = playlistObject.getAsJsonArray("tracks");
-        List<String> trackUris = new ArrayList<>();
+    // The reader needs a dictionary to intern URIs into; a fresh one per file keeps the raw
+    // mode from holding every URI of the run
+    private static void processFile(String inputFile, BufferedWriter writer) throws IOException {
+        NodeDictionary trackDictionary = new NodeDictionary();
+        PlaylistReader reader = new PlaylistReader("track_uri", trackDictionary);
+        reader.read(inputFile, null, playlist -> processPlaylist(playlist, trackDictionary, writer));
+    }
 
-        for (JsonElement trackElement : tracksArray) {
-            JsonObject trackObject = trackElement.getAsJsonObject();
-            String trackUri = trackObject.get("track_uri").getAsString();
-            trackUris.add(trackUri);
-        }
+    private static void processPlaylist(PlaylistReader.Playlist playlist, NodeDictionary trackDictionary,
+                                        BufferedWriter writer) throws IOException {
+        int[] trackIds = playlist.ids[0];
 
         // Generate unique track pairs and write to edge list
-        for (int i = 0; i < trackUris.size(); i++) {
-            for (int j = i + 1; j < trackUris.size(); j++) {
-                writer.write(trackUris.get(i) + "\t" + trackUris.get(j));
+        for (int i = 0; i < playlist.trackCount; i++) {
+            String trackUri = trackDictionary.uriOf(trackIds[i]);
+            for (int j = i + 1; j < playlist.trackCount; j++) {
+                writer.write(trackUri + "\t" + trackDictionary.uriOf(trackIds[j]));
                 writer.newLine();
             }
         }
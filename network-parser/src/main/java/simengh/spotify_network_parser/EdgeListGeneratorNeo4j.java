@@ -1,59 +1,176 @@
 package simengh.spotify_network_parser;
 
-import com.google.gson.*;
-import com.google.gson.stream.JsonReader;
 import me.tongfei.progressbar.ProgressBar;
+import org.apache.commons.cli.*;
 import org.neo4j.driver.*;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 
+// Loads the track co-occurrence graph into Neo4j in two phases. All files are first
+// aggregated client-side into distinct tracks and weighted pairs, exactly as GraphMLGenerator
+// counts them; then nodes are written once and relationships are written with their weight,
+// both with UNWIND over large batches. Relationships find their endpoints through an index on
+// the integer track id rather than the URI. Batches are sent through an AsyncBatchWriter, so
+// building the next batch overlaps with the transactions in flight and the database never
+// waits on the client. A batch may be retried after its commit went through unacknowledged,
+// so both queries MERGE: running one twice leaves the same nodes and relationships.
 public class EdgeListGeneratorNeo4j {
-    private static final int BATCH_SIZE = 1000; // Adjust based on performance testing
+    private static final int NODE_BATCH_SIZE = 50_000; // Adjust based on performance testing
+    private static final int EDGE_BATCH_SIZE = 20_000;
+
+    private static final String MERGE_NODES = "UNWIND range(0, size($uris) - 1) AS i " +
+            "MERGE (t:Track {uri: $uris[i]}) " +
+            "SET t.id = $first + i";
+    private static final String MERGE_RELATIONSHIPS = "UNWIND range(0, size($sources) - 1) AS i " +
+            "MATCH (t1:Track {id: $sources[i]}) " +
+            "MATCH (t2:Track {id: $targets[i]}) " +
+            "MERGE (t1)-[r:CO_OCCURS_WITH]->(t2) " +
+            "SET r.weight = $weights[i]";
+
+    // Default values
+    private static final String DEFAULT_DATA_DIR = "/Users/simeng/local_dev/CMU_networks_project/dataset/data";
+    private static final String DEFAULT_NEO4J_URI = "bolt://localhost:7687";
+    private static final String DEFAULT_USER = "neo4j";
+    private static final String DEFAULT_PASSWORD = "password"; // Replace with your Neo4j password
+    private static final int DEFAULT_THREADS = 1;
+    private static final int DEFAULT_IN_FLIGHT = 4;
+    private static final int DEFAULT_RETRIES = 5;
 
     public static void main(String[] args) throws IOException {
-        String dataDir = "/Users/simeng/local_dev/CMU_networks_project/dataset/data";
-
-        // Get all JSON files in the data directory
-        List<String> inputFiles = new ArrayList<>();
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dataDir))) {
-            for (Path path : stream) {
-                if (path.toString().endsWith(".json")) {
-                    inputFiles.add(path.toString());
-                }
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("d")
+                .longOpt("directory")
+                .desc("Input directory containing JSON files")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("neo4j")
+                .desc("Neo4j URI (default " + DEFAULT_NEO4J_URI + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("u")
+                .longOpt("user")
+                .desc("Neo4j user name (default neo4j)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("p")
+                .longOpt("password")
+                .desc("Neo4j password")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of worker threads used to parse input files (default 1)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("c")
+                .longOpt("in-flight")
+                .desc("Maximum number of concurrent write transactions (default 4)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("r")
+                .longOpt("retries")
+                .desc("Times a batch is retried after a transient error (default 5)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("dry-run")
+                .desc("Build and pipeline every batch without connecting to Neo4j")
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("EdgeListGeneratorNeo4j", options);
+                System.exit(0);
             }
-        }
-
-        // Initialize the Neo4j driver
-        Driver driver = GraphDatabase.driver(
-                "bolt://localhost:7687",
-                AuthTokens.basic("neo4j", "password") // Replace with your Neo4j username and password
-        );
-
-        try (Session session = driver.session()) {
-            // Drop previous data
-            clearDatabase(session);
 
-            // Create indexes and constraints for optimization
-            createIndexesAndConstraints(session);
-        }
+            String dataDir = cmd.getOptionValue("directory", DEFAULT_DATA_DIR);
+            String neo4jUri = cmd.getOptionValue("neo4j", DEFAULT_NEO4J_URI);
+            String user = cmd.getOptionValue("user", DEFAULT_USER);
+            String password = cmd.getOptionValue("password", DEFAULT_PASSWORD);
+            int threads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(DEFAULT_THREADS)));
+            int inFlight = Integer.parseInt(cmd.getOptionValue("in-flight", String.valueOf(DEFAULT_IN_FLIGHT)));
+            int retries = Integer.parseInt(cmd.getOptionValue("retries", String.valueOf(DEFAULT_RETRIES)));
+            boolean dryRun = cmd.hasOption("dry-run");
+
+            if (threads < 1 || inFlight < 1 || retries < 0) {
+                System.err.println("Error: threads and in-flight must be at least 1, and retries must not be negative");
+                System.exit(1);
+            }
 
-        // Initialize the progress bar
-        try (ProgressBar pb = new ProgressBar("Processing Files", inputFiles.size())) {
-            for (String inputFile : inputFiles) {
-                try (Session session = driver.session()) {
-                    processFile(inputFile, session);
-                } catch (Exception e) {
-                    e.printStackTrace();
+            // Get all JSON files in the data directory
+            List<String> inputFiles = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dataDir))) {
+                for (Path path : stream) {
+                    if (path.toString().endsWith(".json")) {
+                        inputFiles.add(path.toString());
+                    }
+                }
+            }
+            Collections.sort(inputFiles);
+
+            // Phase 1: count every co-occurring pair across all files. The reader interns each
+            // track URI once, instead of per playlist.
+            NodeDictionary trackDictionary = new NodeDictionary();
+            CoOccurrenceAccumulator[] accumulators =
+                    new CoOccurrenceAccumulator[Math.max(1, Math.min(threads, inputFiles.size()))];
+            GraphMLGenerator.parseFiles(inputFiles, trackDictionary, GraphMLGenerator.NodeType.TRACK,
+                    GraphMLGenerator.InputMode.STREAM, threads, (worker, workerCount) -> {
+                        CoOccurrenceAccumulator local = new CoOccurrenceAccumulator(trackDictionary, workerCount);
+                        accumulators[worker] = local;
+                        return playlist -> local.addPlaylist(playlist.ids[0], playlist.trackCount);
+                    });
+            CoOccurrenceAccumulator accumulator = GraphMLGenerator.mergeAccumulators(accumulators);
+            System.out.println("Aggregated " + trackDictionary.size() + " tracks and " + accumulator.edgeCount() + " edges");
+
+            // Phase 2: bulk-load the aggregated graph
+            if (dryRun) {
+                load(AsyncBatchWriter.discarding(), inFlight, retries, trackDictionary, accumulator);
+            } else {
+                // Initialize the Neo4j driver
+                try (Driver driver = GraphDatabase.driver(neo4jUri, AuthTokens.basic(user, password))) {
+                    try (Session session = driver.session()) {
+                        // Drop previous data
+                        clearDatabase(session);
+
+                        // Create indexes and constraints for optimization
+                        createIndexesAndConstraints(session);
+                    }
+                    load(AsyncBatchWriter.neo4j(driver), inFlight, retries, trackDictionary, accumulator);
                 }
-                pb.step(); // Update the progress bar
             }
-        } finally {
-            driver.close(); // Close the driver connection
+
+            System.out.println("Processing complete.");
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("EdgeListGeneratorNeo4j", options);
+            System.exit(1);
         }
+    }
 
-        System.out.println("Processing complete.");
+    // Sends every node batch, waits for them so that relationships can match their endpoints,
+    // then streams the relationship batches
+    static void load(AsyncBatchWriter.Target target, int inFlight, int retries, NodeDictionary trackDictionary,
+                     CoOccurrenceAccumulator accumulator) throws IOException {
+        try (AsyncBatchWriter writer = new AsyncBatchWriter(target, inFlight, retries)) {
+            createNodes(writer, trackDictionary);
+            writer.flush();
+            createRelationships(writer, accumulator);
+            writer.flush();
+            System.out.println("Wrote " + writer.completedBatches() + " batches (" + writer.retriedBatches() + " retries)");
+        }
     }
 
     private static void clearDatabase(Session session) {
@@ -61,107 +178,64 @@ public class EdgeListGeneratorNeo4j {
     }
 
     private static void createIndexesAndConstraints(Session session) {
-        // Create an index on :Track(uri)
-        session.run("CREATE INDEX IF NOT EXISTS FOR (t:Track) ON (t.uri)");
+        // Track URIs are unique, which also indexes them for lookups by URI
+        session.run("CREATE CONSTRAINT track_uri IF NOT EXISTS FOR (t:Track) REQUIRE t.uri IS UNIQUE");
 
-        // Optional: Create a uniqueness constraint to prevent duplicate relationships
-        // This ensures that only one relationship exists between any two tracks
-        // session.run("CREATE CONSTRAINT IF NOT EXISTS ON ()-[r:CO_OCCURS_WITH]-() ASSERT exists(r)");
+        // Relationships are created by matching on the integer id
+        session.run("CREATE INDEX track_id IF NOT EXISTS FOR (t:Track) ON (t.id)");
+        session.run("CALL db.awaitIndexes()");
     }
 
-    private static void processFile(String inputFile, Session session) throws IOException {
-        Gson gson = new Gson();
-        try (JsonReader reader = new JsonReader(new FileReader(inputFile))) {
-            reader.beginObject(); // Start reading the JSON object
-
-            while (reader.hasNext()) {
-                String name = reader.nextName();
-                if ("playlists".equals(name)) {
-                    reader.beginArray(); // Start reading the playlists array
-                    while (reader.hasNext()) {
-                        JsonObject playlistObject = gson.fromJson(reader, JsonObject.class);
-                        processPlaylist(playlistObject, session);
-                    }
-                    reader.endArray();
-                } else {
-                    reader.skipValue(); // Skip other fields (e.g., "info")
+    private static void createNodes(AsyncBatchWriter writer, NodeDictionary trackDictionary) throws IOException {
+        int nodeCount = trackDictionary.size();
+        try (ProgressBar pb = new ProgressBar("Creating Nodes", nodeCount)) {
+            for (int start = 0; start < nodeCount; start += NODE_BATCH_SIZE) {
+                int end = Math.min(start + NODE_BATCH_SIZE, nodeCount);
+                List<String> uris = new ArrayList<>(end - start);
+                for (int id = start; id < end; id++) {
+                    uris.add(trackDictionary.uriOf(id));
                 }
+                Map<String, Object> params = new HashMap<>();
+                params.put("first", start);
+                params.put("uris", uris);
+                writer.submit(MERGE_NODES, params);
+                pb.stepBy(end - start);
             }
-            reader.endObject();
-        }
-    }
-
-    private static void processPlaylist(JsonObject playlistObject, Session session) {
-        JsonArray tracksArray = playlistObject.getAsJsonArray("tracks");
-        List<String> trackUris = new ArrayList<>();
-
-        for (JsonElement trackElement : tracksArray) {
-            JsonObject trackObject = trackElement.getAsJsonObject();
-            String trackUri = trackObject.get("track_uri").getAsString();
-            trackUris.add(trackUri);
         }
-
-        createNodesAndRelationships(trackUris, session);
     }
 
-    private static void createNodesAndRelationships(List<String> trackUris, Session session) {
-        // Remove duplicate track URIs
-        Set<String> uniqueTrackUris = new HashSet<>(trackUris);
-
-        // Batch create nodes
-        List<Map<String, Object>> nodeParamsList = new ArrayList<>();
-        for (String trackUri : uniqueTrackUris) {
-            Map<String, Object> params = new HashMap<>();
-            params.put("uri", trackUri);
-            nodeParamsList.add(params);
-
-            if (nodeParamsList.size() >= BATCH_SIZE) {
-                createNodes(session, nodeParamsList);
-                nodeParamsList.clear();
-            }
-        }
-        // Create any remaining nodes
-        if (!nodeParamsList.isEmpty()) {
-            createNodes(session, nodeParamsList);
-        }
-
-        // Batch create relationships
-        List<Map<String, Object>> relParamsList = new ArrayList<>();
-        for (int i = 0; i < trackUris.size(); i++) {
-            for (int j = i + 1; j < trackUris.size(); j++) {
-                Map<String, Object> params = new HashMap<>();
-                params.put("uri1", trackUris.get(i));
-                params.put("uri2", trackUris.get(j));
-                relParamsList.add(params);
-
-                if (relParamsList.size() >= BATCH_SIZE) {
-                    createRelationships(session, relParamsList);
-                    relParamsList.clear();
+    private static void createRelationships(AsyncBatchWriter writer, CoOccurrenceAccumulator accumulator)
+            throws IOException {
+        // Each batch gets its own arrays: a submitted batch may still be in flight, or be retried
+        int[][] batch = {new int[EDGE_BATCH_SIZE], new int[EDGE_BATCH_SIZE], new int[EDGE_BATCH_SIZE]};
+        int[] size = {0};
+        try (ProgressBar pb = new ProgressBar("Creating Relationships", accumulator.edgeCount())) {
+            accumulator.forEachEdge((source, target, weight) -> {
+                batch[0][size[0]] = source;
+                batch[1][size[0]] = target;
+                batch[2][size[0]++] = weight;
+                if (size[0] == EDGE_BATCH_SIZE) {
+                    submitRelationships(writer, batch, size[0]);
+                    pb.stepBy(size[0]);
+                    for (int column = 0; column < batch.length; column++) {
+                        batch[column] = new int[EDGE_BATCH_SIZE];
+                    }
+                    size[0] = 0;
                 }
+            });
+            // Create any remaining relationships
+            if (size[0] > 0) {
+                submitRelationships(writer, batch, size[0]);
+                pb.stepBy(size[0]);
             }
         }
-        // Create any remaining relationships
-        if (!relParamsList.isEmpty()) {
-            createRelationships(session, relParamsList);
-        }
-    }
-
-    private static void createNodes(Session session, List<Map<String, Object>> nodeParamsList) {
-        session.executeWrite(tx -> {
-            String query = "UNWIND $nodes AS node " +
-                    "MERGE (:Track {uri: node.uri})";
-            tx.run(query, Collections.singletonMap("nodes", nodeParamsList));
-            return null;
-        });
     }
 
-    private static void createRelationships(Session session, List<Map<String, Object>> relParamsList) {
-        session.executeWrite(tx -> {
-            String query = "UNWIND $rels AS rel " +
-                    "MATCH (t1:Track {uri: rel.uri1}), (t2:Track {uri: rel.uri2}) " +
-                    "MERGE (t1)-[:CO_OCCURS_WITH]->(t2)";
-            tx.run(query, Collections.singletonMap("rels", relParamsList));
-            return null;
-        });
+    private static void submitRelationships(AsyncBatchWriter writer, int[][] batch, int size) throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("sources", size == EDGE_BATCH_SIZE ? batch[0] : Arrays.copyOf(batch[0], size));
+        params.put("targets", size == EDGE_BATCH_SIZE ? batch[1] : Arrays.copyOf(batch[1], size));
+        params.put("weights", size == EDGE_BATCH_SIZE ? batch[2] : Arrays.copyOf(batch[2], size));
+        writer.submit(MERGE_RELATIONSHIPS, params);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package simengh.spotify_network_parser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Writes a weighted edge list over integer node ids:
+//
+//   <prefix>.nodes.tsv[.gz]         "id<TAB>uri" for every node, in id order
+//   <prefix>.edges-NN.tsv[.gz]      "source<TAB>target<TAB>weight", one line per edge
+//
+// Each edge goes to shard hash(source) % shards, so all edges of a source node are in one
+// file and the shards can be processed in parallel. With a single shard the edge file is
+// just <prefix>.edges.tsv[.gz]. Lines are written as they arrive; nothing is buffered beyond
+// the output streams.
+class EdgeListWriter implements GraphWriter {
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    private final Path prefix;
+    private final boolean gzip;
+    private final OutputStream[] shards;
+    private final byte[] line = new byte[36];
+
+    EdgeListWriter(String prefix, int shardCount, boolean gzip) throws IOException {
+        this.prefix = Paths.get(prefix).toAbsolutePath();
+        this.gzip = gzip;
+        Files.createDirectories(this.prefix.getParent());
+        shards = new OutputStream[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = open(shardCount == 1 ? ".edges.tsv" : String.format(".edges-%02d.tsv", i));
+        }
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes) throws IOException {
+        try (OutputStream out = open(".nodes.tsv")) {
+            int nodeCount = nodes.size();
+            for (int id = 0; id < nodeCount; id++) {
+                out.write(Integer.toString(id).getBytes(StandardCharsets.US_ASCII));
+                out.write('\t');
+                out.write(nodes.uriOf(id).getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+        }
+    }
+
+    @Override
+    public void writeEdge(int source, int target, int weight) throws IOException {
+        int length = putNumber(source, 0);
+        line[length++] = '\t';
+        length = putNumber(target, length);
+        line[length++] = '\t';
+        length = putNumber(weight, length);
+        line[length++] = '\n';
+        shards[shardOf(source)].write(line, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (OutputStream shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private int shardOf(int source) {
+        if (shards.length == 1) {
+            return 0;
+        }
+        // Scatter consecutive ids, which are often neighbors in the same playlist
+        long mixed = ((source * 0x9E3779B97F4A7C15L) >>> 32) & 0xFFFFFFFFL;
+        return (int) ((mixed * shards.length) >>> 32);
+    }
+
+    private OutputStream open(String suffix) throws IOException {
+        Path path = Paths.get(prefix + suffix + (gzip ? ".gz" : ""));
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), STREAM_BUFFER_SIZE);
+        if (gzip) {
+            out = new GZIPOutputStream(out, STREAM_BUFFER_SIZE) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        }
+        return out;
+    }
+
+    // Formats a non-negative number into line at offset, returning the offset after it
+    private int putNumber(int value, int offset) {
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            line[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
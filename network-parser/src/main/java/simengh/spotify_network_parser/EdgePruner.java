@@ -0,0 +1,166 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Drops weak edges on their way to the output, so a pruned graph is never held in full.
+// Edges lighter than minWeight are discarded as they arrive. With topK > 0 every node also
+// keeps only its topK heaviest edges in a bounded min-heap, and an edge is written if it is
+// among the top K of either endpoint; those edges are emitted when the writer is closed.
+// Equal weights are ranked by the neighbor's URI, since ids follow the order in which parser
+// threads first saw each node. Heaps take 8 * topK + 4 bytes per node. Node statistics are
+// passed on as given, so they must describe the edges that come out of the pruner, not the
+// ones that go in.
+class EdgePruner implements GraphWriter {
+    private final GraphWriter output;
+    private final int minWeight;
+    private final int topK;
+
+    private int[] heapSizes;
+    private int[] heapNeighbors;
+    private int[] heapWeights;
+    // Position of every node in URI order
+    private int[] ranks;
+
+    EdgePruner(GraphWriter output, int minWeight, int topK) {
+        this.output = output;
+        this.minWeight = minWeight;
+        this.topK = topK;
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes) throws IOException {
+        output.writeNodes(nodes);
+        allocateHeaps(nodes);
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes, GraphStatistics statistics) throws IOException {
+        output.writeNodes(nodes, statistics);
+        allocateHeaps(nodes);
+    }
+
+    private void allocateHeaps(NodeDictionary nodes) {
+        if (topK > 0) {
+            int nodeCount = nodes.size();
+            heapSizes = new int[nodeCount];
+            heapNeighbors = new int[Math.multiplyExact(nodeCount, topK)];
+            heapWeights = new int[heapNeighbors.length];
+
+            Integer[] order = new Integer[nodeCount];
+            for (int id = 0; id < nodeCount; id++) {
+                order[id] = id;
+            }
+            Arrays.sort(order, (a, b) -> nodes.uriOf(a).compareTo(nodes.uriOf(b)));
+            ranks = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                ranks[order[i]] = i;
+            }
+        }
+    }
+
+    @Override
+    public void writeEdge(int source, int target, int weight) throws IOException {
+        if (weight < minWeight) {
+            return;
+        }
+        if (topK == 0) {
+            output.writeEdge(source, target, weight);
+            return;
+        }
+        offer(source, target, weight);
+        offer(target, source, weight);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (topK > 0) {
+                emitHeaps();
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    @Override
+    public boolean writesNodesOnClose() {
+        return output.writesNodesOnClose();
+    }
+
+    // Writes every edge kept by either endpoint exactly once: from the heap of the smaller
+    // endpoint if it kept the edge, otherwise from the heap of the larger one
+    private void emitHeaps() throws IOException {
+        for (int node = 0; node < heapSizes.length; node++) {
+            int base = node * topK;
+            for (int i = 0; i < heapSizes[node]; i++) {
+                int neighbor = heapNeighbors[base + i];
+                if (neighbor > node || !heapContains(neighbor, node)) {
+                    output.writeEdge(node, neighbor, heapWeights[base + i]);
+                }
+            }
+        }
+    }
+
+    private boolean heapContains(int node, int neighbor) {
+        int base = node * topK;
+        for (int i = 0; i < heapSizes[node]; i++) {
+            if (heapNeighbors[base + i] == neighbor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Heap order puts the weakest edge at the root: lower weight first, and on equal weight the
+    // neighbor later in URI order, so the result depends neither on the order edges arrive in
+    // nor on how ids were assigned
+    private boolean weaker(int weight1, int neighbor1, int weight2, int neighbor2) {
+        return weight1 < weight2 || (weight1 == weight2 && ranks[neighbor1] > ranks[neighbor2]);
+    }
+
+    private void offer(int node, int neighbor, int weight) {
+        int base = node * topK;
+        int size = heapSizes[node];
+        if (size < topK) {
+            // Sift the new entry up from the end
+            int index = size;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (!weaker(weight, neighbor, heapWeights[base + parent], heapNeighbors[base + parent])) {
+                    break;
+                }
+                heapWeights[base + index] = heapWeights[base + parent];
+                heapNeighbors[base + index] = heapNeighbors[base + parent];
+                index = parent;
+            }
+            heapWeights[base + index] = weight;
+            heapNeighbors[base + index] = neighbor;
+            heapSizes[node] = size + 1;
+            return;
+        }
+        if (!weaker(heapWeights[base], heapNeighbors[base], weight, neighbor)) {
+            return;
+        }
+        // Replace the weakest entry and sift it down
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && weaker(heapWeights[base + child + 1], heapNeighbors[base + child + 1],
+                    heapWeights[base + child], heapNeighbors[base + child])) {
+                child++;
+            }
+            if (!weaker(heapWeights[base + child], heapNeighbors[base + child], weight, neighbor)) {
+                break;
+            }
+            heapWeights[base + index] = heapWeights[base + child];
+            heapNeighbors[base + index] = heapNeighbors[base + child];
+            index = child;
+        }
+        heapWeights[base + index] = weight;
+        heapNeighbors[base + index] = neighbor;
+    }
+}
@@ -0,0 +1,304 @@
+package simengh.spotify_network_parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Out-of-core co-occurrence counting for graphs whose edges do not fit in memory.
+// Each worker buffers raw pairs as packed edge keys in a fixed-size long[]; when it fills up
+// the buffer is sorted, equal keys are collapsed into (key, count) records and the result is
+// written to a temporary run file. A k-way merge over the runs then sums the counts of each
+// edge and streams the edges, in key order, straight to the output.
+// Memory is bounded by the budget whatever the input size: the run buffers share it while
+// parsing, and the merge reads at most MAX_FAN_IN runs at a time through budget-sized buffers.
+// Node occurrences are counted per worker alongside the pairs, so the output can carry them.
+class ExternalPairAggregator {
+    private static final int MAX_FAN_IN = 128;
+    private static final int MIN_READ_BUFFER = 1 << 16;
+    private static final int MAX_READ_BUFFER = 1 << 22;
+
+    final NodeDictionary nodes;
+    private final long memoryBudget;
+    private final Path tempDir;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<OccurrenceCounter> occurrenceCounters = new ArrayList<>();
+
+    ExternalPairAggregator(NodeDictionary nodes, long memoryBudget, Path tempDir) {
+        this.nodes = nodes;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+    }
+
+    // Creates the pair buffer for one of workerCount workers, each taking an equal share of
+    // the budget
+    RunBuffer newRunBuffer(int workerCount) {
+        long pairs = memoryBudget / 8 / workerCount;
+        return new RunBuffer((int) Math.max(1 << 10, Math.min(pairs, Integer.MAX_VALUE - 8)));
+    }
+
+    int runCount() {
+        synchronized (runs) {
+            return runs.size();
+        }
+    }
+
+    // Playlist occurrences of nodes 0 to nodeCount - 1, summed over the workers and any base graph
+    int[] occurrences(int nodeCount) {
+        int[] occurrences = new int[nodeCount];
+        synchronized (occurrenceCounters) {
+            for (OccurrenceCounter counter : occurrenceCounters) {
+                for (int v = 0; v < Math.min(nodeCount, counter.counts.length); v++) {
+                    occurrences[v] += counter.counts[v];
+                }
+            }
+        }
+        return occurrences;
+    }
+
+    // Adds the edges of a previously built graph as one more run, and its occurrence counts if
+    // it has them. Rows are sorted by neighbor id, so visiting each edge from its lower endpoint
+    // already yields keys in ascending order.
+    void addGraph(CsrGraph graph) throws IOException {
+        if (graph.occurrences != null) {
+            OccurrenceCounter counter = new OccurrenceCounter();
+            counter.addAll(graph.occurrences);
+            synchronized (occurrenceCounters) {
+                occurrenceCounters.add(counter);
+            }
+        }
+        Path run = Files.createTempFile(tempDir, "pairs", ".run");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (int v = 0; v < graph.nodeCount(); v++) {
+                for (int i = graph.offsets[v]; i < graph.offsets[v + 1]; i++) {
+                    if (graph.neighbors[i] > v) {
+                        out.writeLong(CoOccurrenceAccumulator.edgeKey(v, graph.neighbors[i]));
+                        out.writeInt(graph.weights[i]);
+                    }
+                }
+            }
+        }
+        synchronized (runs) {
+            runs.add(run);
+        }
+    }
+
+    // Per-worker pair buffer; not thread-safe
+    class RunBuffer {
+        private final long[] keys;
+        private final OccurrenceCounter occurrences = new OccurrenceCounter();
+        private int size;
+
+        RunBuffer(int capacity) {
+            keys = new long[capacity];
+            synchronized (occurrenceCounters) {
+                occurrenceCounters.add(occurrences);
+            }
+        }
+
+        // Buffers one pair for every two distinct nodes in the playlist, spilling when full
+        void addPlaylist(int[] nodeIds, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                int node1 = nodeIds[i];
+                occurrences.add(node1);
+                for (int j = i + 1; j < count; j++) {
+                    int node2 = nodeIds[j];
+
+                    // Skip self-edges
+                    if (node1 == node2) {
+                        continue;
+                    }
+
+                    if (size == keys.length) {
+                        spill();
+                    }
+                    keys[size++] = CoOccurrenceAccumulator.edgeKey(node1, node2);
+                }
+            }
+        }
+
+        // Sorts the buffered pairs and writes them as one run of (key, count) records
+        void spill() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            Arrays.sort(keys, 0, size);
+            Path run = Files.createTempFile(tempDir, "pairs", ".run");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                long key = keys[0];
+                int weight = 1;
+                for (int i = 1; i < size; i++) {
+                    if (keys[i] == key) {
+                        weight++;
+                    } else {
+                        out.writeLong(key);
+                        out.writeInt(weight);
+                        key = keys[i];
+                        weight = 1;
+                    }
+                }
+                out.writeLong(key);
+                out.writeInt(weight);
+            }
+            synchronized (runs) {
+                runs.add(run);
+            }
+            size = 0;
+        }
+    }
+
+    // Merges all runs and passes every edge with its total weight to visitor, in key order.
+    // Runs are deleted as they are consumed.
+    void merge(CoOccurrenceAccumulator.EdgeVisitor visitor) throws IOException {
+        List<Path> pending;
+        synchronized (runs) {
+            pending = new ArrayList<>(runs);
+            runs.clear();
+        }
+        // Runs written by the current intermediate pass, deleted with pending if the pass fails
+        List<Path> merged = new ArrayList<>();
+        try {
+            // Reduce the number of runs until one final merge can read them all at once
+            while (pending.size() > MAX_FAN_IN) {
+                merged = new ArrayList<>();
+                for (int start = 0; start < pending.size(); start += MAX_FAN_IN) {
+                    List<Path> group = pending.subList(start, Math.min(start + MAX_FAN_IN, pending.size()));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    Path run = Files.createTempFile(tempDir, "pairs", ".run");
+                    merged.add(run);
+                    try (DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                        mergeRuns(group, (key, weight) -> {
+                            out.writeLong(key);
+                            out.writeInt(weight);
+                        });
+                    }
+                }
+                pending = merged;
+            }
+            mergeRuns(pending, (key, weight) -> visitor.visit(
+                    CoOccurrenceAccumulator.source(key), CoOccurrenceAccumulator.target(key), weight));
+        } finally {
+            for (Path run : pending) {
+                Files.deleteIfExists(run);
+            }
+            for (Path run : merged) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(long key, int weight) throws IOException;
+    }
+
+    // Merges sorted runs through a binary min-heap of run indices keyed by each run's current
+    // key, collapsing equal keys. The runs are deleted afterwards.
+    private void mergeRuns(List<Path> group, RecordVisitor visitor) throws IOException {
+        int runCount = group.size();
+        int bufferSize = (int) Math.max(MIN_READ_BUFFER, Math.min(MAX_READ_BUFFER, memoryBudget / Math.max(1, runCount)));
+        DataInputStream[] inputs = new DataInputStream[runCount];
+        long[] currentKeys = new long[runCount];
+        int[] currentWeights = new int[runCount];
+        int[] heap = new int[runCount];
+        int heapSize = 0;
+        try {
+            for (int r = 0; r < runCount; r++) {
+                inputs[r] = new DataInputStream(new BufferedInputStream(Files.newInputStream(group.get(r)), bufferSize));
+                if (advance(inputs[r], r, currentKeys, currentWeights)) {
+                    heap[heapSize++] = r;
+                    siftUp(heap, heapSize - 1, currentKeys);
+                }
+            }
+
+            boolean started = false;
+            long key = 0;
+            long weight = 0;
+            while (heapSize > 0) {
+                int r = heap[0];
+                if (started && currentKeys[r] == key) {
+                    weight += currentWeights[r];
+                } else {
+                    if (started) {
+                        visitor.visit(key, Math.toIntExact(weight));
+                    }
+                    started = true;
+                    key = currentKeys[r];
+                    weight = currentWeights[r];
+                }
+                if (!advance(inputs[r], r, currentKeys, currentWeights)) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heapSize, currentKeys);
+            }
+            if (started) {
+                visitor.visit(key, Math.toIntExact(weight));
+            }
+        } finally {
+            for (int r = 0; r < runCount; r++) {
+                if (inputs[r] != null) {
+                    inputs[r].close();
+                }
+                Files.deleteIfExists(group.get(r));
+            }
+        }
+    }
+
+    private static boolean advance(DataInputStream in, int run, long[] keys, int[] weights) throws IOException {
+        try {
+            keys[run] = in.readLong();
+        } catch (EOFException e) {
+            return false;
+        }
+        weights[run] = in.readInt();
+        return true;
+    }
+
+    private static void siftUp(int[] heap, int index, long[] keys) {
+        int run = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (keys[heap[parent]] <= keys[run]) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = run;
+    }
+
+    private static void siftDown(int[] heap, int size, long[] keys) {
+        if (size == 0) {
+            return;
+        }
+        int index = 0;
+        int run = heap[0];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            if (keys[heap[child]] >= keys[run]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = run;
+    }
+}
@@ -1,29 +1,77 @@
 package simengh.spotify_network_parser;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.stream.JsonReader;
-
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 import org.apache.commons.cli.*;
 import me.tongfei.progressbar.*;
 
 public class GraphMLGenerator {
     enum NodeType {
-        TRACK, ARTIST
+        TRACK("track_uri"), ARTIST("artist_uri"), ALBUM("album_uri");
+
+        // Track field holding the URI of this node type in the MPD JSON
+        final String field;
+
+        NodeType(String field) {
+            this.field = field;
+        }
+    }
+
+    enum InputMode {
+        // Gson token stream over a character reader
+        STREAM,
+        // Memory-mapped file scanned as UTF-8 bytes
+        MMAP;
+
+        PlaylistReader createReader(NodeType nodeType, NodeDictionary nodes) {
+            return createReader(new String[]{nodeType.field}, new NodeDictionary[]{nodes});
+        }
+
+        // Reads several track fields in one pass, each into its own dictionary
+        PlaylistReader createReader(String[] fields, NodeDictionary[] dictionaries) {
+            return this == MMAP
+                    ? new MappedPlaylistReader(fields, dictionaries)
+                    : new PlaylistReader(fields, dictionaries);
+        }
+    }
+
+    enum OutputFormat {
+        GRAPHML, BIN,
+        // Directory of CSV files for neo4j-admin database import
+        NEO4J_CSV;
+
+        GraphWriter createWriter(String outputPath, int threads, boolean compress) throws IOException {
+            return createWriter(outputPath, threads, compress, false);
+        }
+
+        // With nodesOnClose every format writes its nodes when it is closed, after the edges;
+        // BIN always does
+        GraphWriter createWriter(String outputPath, int threads, boolean compress, boolean nodesOnClose)
+                throws IOException {
+            switch (this) {
+                case BIN:
+                    return new BinaryGraphWriter(outputPath);
+                case NEO4J_CSV:
+                    return new Neo4jCsvWriter(outputPath, threads, compress, nodesOnClose);
+                default:
+                    return new GraphMLWriter(outputPath, nodesOnClose);
+            }
+        }
     }
 
     // Default values
@@ -32,6 +80,72 @@ public class GraphMLGenerator {
     private static final int DEFAULT_END_INDEX = 1;  // Will process 2 files by default
     private static final String DEFAULT_OUTPUT_PATH = "track_graph.graphml";
     private static final NodeType DEFAULT_NODE_TYPE = NodeType.TRACK;
+    private static final int DEFAULT_THREADS = 1;
+    private static final InputMode DEFAULT_INPUT_MODE = InputMode.STREAM;
+    private static final OutputFormat DEFAULT_OUTPUT_FORMAT = OutputFormat.GRAPHML;
+    private static final int DEFAULT_MIN_WEIGHT = 1;
+    private static final int DEFAULT_TOP_K = 0;
+    private static final int DEFAULT_METRICS_INTERVAL = 10;
+    private static final String DEFAULT_SKETCH_MEMORY = "256m";
+    private static final int DEFAULT_SKETCH_DEPTH = 4;
+    private static final int DEFAULT_MAX_EDGES = 10_000_000;
+    // Name of the bipartite graph, and the prefix of its playlist node ids
+    private static final String PLAYLIST_TRACK = "PLAYLIST_TRACK";
+    private static final String PLAYLIST_URI_PREFIX = "playlist:";
+
+    // One graph built from the shared parse: the co-occurrence graph of a node type, or the
+    // bipartite playlist-track graph if nodeType is null
+    private static class Projection {
+        final String name;
+        final NodeType nodeType;
+        final String outputPath;
+        final NodeDictionary nodes = new NodeDictionary();
+        // Index of the track field this graph reads in playlist.ids
+        int field;
+        CoOccurrenceAccumulator[] accumulators;
+        long edgeCount;
+
+        Projection(String name, NodeType nodeType, String outputPath) {
+            this.name = name;
+            this.nodeType = nodeType;
+            this.outputPath = outputPath;
+        }
+    }
+
+    // Adds an edge from every playlist to each of its tracks, weighted by how often the track
+    // appears in it. Playlists and tracks share the accumulator's dictionary; track ids of the
+    // parse are mapped into it through a per-worker table, so each track URI is looked up once.
+    private static class PlaylistTrackHandler implements PlaylistReader.Handler {
+        private final CoOccurrenceAccumulator accumulator;
+        private final NodeDictionary tracks;
+        private final int field;
+        // Node id plus one of each parsed track id, 0 if not looked up yet
+        private int[] trackNodes = new int[1024];
+
+        PlaylistTrackHandler(CoOccurrenceAccumulator accumulator, NodeDictionary tracks, int field) {
+            this.accumulator = accumulator;
+            this.tracks = tracks;
+            this.field = field;
+        }
+
+        @Override
+        public void playlist(PlaylistReader.Playlist playlist) {
+            int playlistNode = accumulator.nodes.idOf(PLAYLIST_URI_PREFIX + playlist.pid);
+            accumulator.countOccurrence(playlistNode);
+            int[] ids = playlist.ids[field];
+            for (int i = 0; i < playlist.trackCount; i++) {
+                int track = ids[i];
+                if (track >= trackNodes.length) {
+                    trackNodes = Arrays.copyOf(trackNodes, Math.max(track + 1, trackNodes.length << 1));
+                }
+                if (trackNodes[track] == 0) {
+                    trackNodes[track] = accumulator.nodes.idOf(tracks.uriOf(track)) + 1;
+                }
+                accumulator.addEdge(playlistNode, trackNodes[track] - 1);
+                accumulator.countOccurrence(trackNodes[track] - 1);
+            }
+        }
+    }
 
     public static void main(String[] args) throws IOException {
         // Create command line options
@@ -55,12 +169,116 @@ public class GraphMLGenerator {
                 .build());
         options.addOption(Option.builder("o")
                 .longOpt("output")
-                .desc("Output path for GraphML file")
+                .desc("Output path for GraphML file (gzip-compressed if it ends in .gz)")
                 .hasArg()
                 .build());
+        options.addOption(Option.builder("f")
+                .longOpt("format")
+                .desc("Output format: GRAPHML, BIN (node dictionary plus CSR adjacency) or NEO4J_CSV "
+                        + "(output is a directory of neo4j-admin import files), default GRAPHML")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("z")
+                .longOpt("compress")
+                .desc("Gzip-compress NEO4J_CSV files (GraphML is compressed when the output path ends in .gz)")
+                .build());
         options.addOption(Option.builder("t")
                 .longOpt("type")
-                .desc("Node type (TRACK or ARTIST)")
+                .desc("Node type (TRACK, ARTIST or ALBUM), or a comma-separated list of them to build one graph "
+                        + "per type from a single pass over the input (default TRACK)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("bipartite")
+                .desc("Also build the bipartite playlist-track graph in the same pass")
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of worker threads used to parse input files (default 1)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("i")
+                .longOpt("input-mode")
+                .desc("How input files are read: STREAM or MMAP (default STREAM)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("m")
+                .longOpt("mem-budget")
+                .desc("Aggregate edges out of core within this many bytes of memory, e.g. 512m or 4g "
+                        + "(default: aggregate in memory)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("temp-dir")
+                .desc("Directory for the sorted runs written in --mem-budget mode (default: system temp)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("w")
+                .longOpt("min-weight")
+                .desc("Drop edges whose weight is below this value (default 1, keep all)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("k")
+                .longOpt("top-k")
+                .desc("Keep only the k heaviest edges of each node; an edge survives if either endpoint "
+                        + "keeps it (default 0, no limit)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("b")
+                .longOpt("base")
+                .desc("Binary graph snapshot from an earlier run to update: only input files missing from "
+                        + "its manifest are parsed, and their weights are added to the snapshot's")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("a")
+                .longOpt("approximate")
+                .desc("Count pairs approximately in a Count-Min sketch, in fixed memory, and keep the edges whose "
+                        + "estimated weight reaches --min-weight (reads the input twice)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("sketch-memory")
+                .desc("Size of the --approximate sketch, e.g. 256m (default " + DEFAULT_SKETCH_MEMORY + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("sketch-depth")
+                .desc("Rows of the --approximate sketch; each cuts the chance of a large error by a factor of e "
+                        + "(default " + DEFAULT_SKETCH_DEPTH + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-edges")
+                .desc("Most edges kept in --approximate mode; the weight threshold is raised to stay within it "
+                        + "(default " + DEFAULT_MAX_EDGES + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-pairs")
+                .desc("In --approximate mode, count a reweighted sample of the pairs of playlists with more than "
+                        + "this many pairs (default: count all pairs)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics-out")
+                .desc("Write run metrics (stage times, throughput, edge table, heap and GC) as JSON to this file, "
+                        + "updated periodically while running")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics-interval")
+                .desc("Seconds between --metrics-out updates (default 10, 0 for only the final one)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("jfr")
+                .desc("Record a Java Flight Recording of the run, including one event per stage, to this file")
                 .hasArg()
                 .build());
         options.addOption("h", "help", false, "Print this help message");
@@ -81,18 +299,90 @@ public class GraphMLGenerator {
             int startIndex = Integer.parseInt(cmd.getOptionValue("start", String.valueOf(DEFAULT_START_INDEX)));
             int endIndex = Integer.parseInt(cmd.getOptionValue("end", String.valueOf(DEFAULT_END_INDEX)));
             String outputPath = cmd.getOptionValue("output", DEFAULT_OUTPUT_PATH);
-            NodeType nodeType = cmd.hasOption("type") ? 
-                NodeType.valueOf(cmd.getOptionValue("type").toUpperCase()) : 
-                DEFAULT_NODE_TYPE;
+            OutputFormat outputFormat = cmd.hasOption("format") ?
+                OutputFormat.valueOf(cmd.getOptionValue("format").toUpperCase()) :
+                DEFAULT_OUTPUT_FORMAT;
+            List<NodeType> nodeTypes = new ArrayList<>();
+            for (String type : cmd.getOptionValue("type", DEFAULT_NODE_TYPE.name()).split(",")) {
+                NodeType nodeType = NodeType.valueOf(type.trim().toUpperCase());
+                if (!nodeTypes.contains(nodeType)) {
+                    nodeTypes.add(nodeType);
+                }
+            }
+            boolean bipartite = cmd.hasOption("bipartite");
+            // Several graphs each get their own output path, derived from the given one
+            boolean multiple = nodeTypes.size() > 1 || bipartite;
+            int threads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(DEFAULT_THREADS)));
+            InputMode inputMode = cmd.hasOption("input-mode") ?
+                InputMode.valueOf(cmd.getOptionValue("input-mode").toUpperCase()) :
+                DEFAULT_INPUT_MODE;
+            long memoryBudget = cmd.hasOption("mem-budget") ? parseSize(cmd.getOptionValue("mem-budget")) : 0;
+            Path tempDir = Paths.get(cmd.getOptionValue("temp-dir", System.getProperty("java.io.tmpdir")));
+            int minWeight = Integer.parseInt(cmd.getOptionValue("min-weight", String.valueOf(DEFAULT_MIN_WEIGHT)));
+            int topK = Integer.parseInt(cmd.getOptionValue("top-k", String.valueOf(DEFAULT_TOP_K)));
+            String basePath = cmd.getOptionValue("base");
+            boolean compress = cmd.hasOption("compress");
+            String metricsPath = cmd.getOptionValue("metrics-out");
+            int metricsInterval = Integer.parseInt(
+                    cmd.getOptionValue("metrics-interval", String.valueOf(DEFAULT_METRICS_INTERVAL)));
+            String jfrPath = cmd.getOptionValue("jfr");
+            boolean approximate = cmd.hasOption("approximate");
+            long sketchMemory = parseSize(cmd.getOptionValue("sketch-memory", DEFAULT_SKETCH_MEMORY));
+            int sketchDepth = Integer.parseInt(cmd.getOptionValue("sketch-depth", String.valueOf(DEFAULT_SKETCH_DEPTH)));
+            int maxEdges = Integer.parseInt(cmd.getOptionValue("max-edges", String.valueOf(DEFAULT_MAX_EDGES)));
+            long maxPairs = Long.parseLong(cmd.getOptionValue("max-pairs", "0"));
 
             // Print configuration
             System.out.println("Configuration:");
             System.out.println("Input directory: " + dataDir);
             System.out.println("File index range: " + startIndex + " to " + endIndex);
             System.out.println("Output path: " + outputPath);
-            System.out.println("Node type: " + nodeType);
+            System.out.println("Output format: " + outputFormat);
+            System.out.println("Node type: " + nodeTypes.stream().map(Enum::name).collect(Collectors.joining(", "))
+                    + (bipartite ? ", plus the playlist-track graph" : ""));
+            System.out.println("Threads: " + threads);
+            System.out.println("Input mode: " + inputMode);
+            if (memoryBudget > 0) {
+                System.out.println("Memory budget: " + memoryBudget + " bytes (runs in " + tempDir + ")");
+            }
+            if (minWeight > 1 || topK > 0) {
+                System.out.println("Pruning: min weight " + minWeight + ", top-k " + (topK > 0 ? topK : "unlimited"));
+            }
+            if (basePath != null) {
+                System.out.println("Base snapshot: " + basePath);
+            }
+            if (approximate) {
+                System.out.println("Approximate: " + sketchMemory + " byte sketch of depth " + sketchDepth
+                        + ", at most " + maxEdges + " edges" + (maxPairs > 0 ? ", sampling above " + maxPairs + " pairs" : ""));
+            }
             System.out.println();
 
+            if (threads < 1) {
+                System.err.println("Error: Number of threads must be at least 1");
+                System.exit(1);
+            }
+            if (topK < 0) {
+                System.err.println("Error: top-k must not be negative");
+                System.exit(1);
+            }
+            if (approximate && (memoryBudget > 0 || basePath != null)) {
+                System.err.println("Error: --approximate cannot be combined with --mem-budget or --base");
+                System.exit(1);
+            }
+            if (approximate && (sketchDepth < 1 || maxEdges < 1)) {
+                System.err.println("Error: sketch depth and max edges must be at least 1");
+                System.exit(1);
+            }
+            if (multiple && (approximate || memoryBudget > 0 || basePath != null)) {
+                System.err.println("Error: Several graphs can only be built together in memory, "
+                        + "without --approximate, --mem-budget or --base");
+                System.exit(1);
+            }
+            if (metricsInterval < 0) {
+                System.err.println("Error: metrics interval must not be negative");
+                System.exit(1);
+            }
+
             // Validate input directory
             Path dataDirPath = Paths.get(dataDir);
             if (!Files.exists(dataDirPath) || !Files.isDirectory(dataDirPath)) {
@@ -101,9 +391,9 @@ public class GraphMLGenerator {
             }
 
             // Get all JSON files in the data directory
-            List<String> inputFiles;
+            List<String> allFiles;
             try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDirPath)) {
-                inputFiles = StreamSupport.stream(stream.spliterator(), false)
+                allFiles = StreamSupport.stream(stream.spliterator(), false)
                         .filter(path -> path.toString().endsWith(".json"))
                         .map(Path::toString)
                         .sorted()
@@ -111,40 +401,242 @@ public class GraphMLGenerator {
             }
 
             // Validate indices
-            if (startIndex < 0 || endIndex >= inputFiles.size() || startIndex > endIndex) {
-                System.err.println("Error: Invalid file indices. Valid range is 0 to " + (inputFiles.size() - 1));
+            if (startIndex < 0 || endIndex >= allFiles.size() || startIndex > endIndex) {
+                System.err.println("Error: Invalid file indices. Valid range is 0 to " + (allFiles.size() - 1));
                 System.exit(1);
             }
 
             // Select files based on indices
-            inputFiles = inputFiles.subList(startIndex, endIndex + 1);
+            List<String> inputFiles = new ArrayList<>(allFiles.subList(startIndex, endIndex + 1));
 
-            // Initialize progress tracking variables
-            int totalFiles = inputFiles.size();
+            Recording recording = jfrPath != null ? startRecording(jfrPath) : null;
+            RunMetrics metrics = new RunMetrics(metricsPath, metricsInterval);
 
-            // Initialize node and edge collections
-            Set<String> nodes = new HashSet<>();
-            Map<Edge, Edge> edgeMap = new HashMap<>();  // Using map for O(1) lookup
+            List<Projection> projections = new ArrayList<>();
+            for (NodeType type : nodeTypes) {
+                projections.add(new Projection(type.name(), type,
+                        multiple ? projectionPath(outputPath, type.name()) : outputPath));
+            }
+            if (bipartite) {
+                projections.add(new Projection(PLAYLIST_TRACK, null, projectionPath(outputPath, PLAYLIST_TRACK)));
+            }
+            // The approximate, out-of-core and incremental modes build a single graph
+            NodeType nodeType = nodeTypes.get(0);
+            NodeDictionary nodes = projections.get(0).nodes;
+            SnapshotManifest manifest = new SnapshotManifest(nodeType.name());
+            CsrGraph base = null;
+            if (basePath != null) {
+                // Start from the snapshot: its nodes keep their ids and its files are skipped
+                SnapshotManifest baseManifest = SnapshotManifest.read(basePath);
+                if (!baseManifest.nodeType.equals(nodeType.name())) {
+                    System.err.println("Error: Base snapshot holds " + baseManifest.nodeType + " nodes, not " + nodeType);
+                    System.exit(1);
+                }
+                manifest.files.addAll(baseManifest.files);
+                inputFiles.removeIf(baseManifest::contains);
+                base = metrics.time("load-base", () -> {
+                    CsrGraph graph = CsrGraph.load(basePath);
+                    for (String uri : graph.uris) {
+                        nodes.idOf(uri);
+                    }
+                    return graph;
+                });
+                System.out.println("Loaded " + base.nodeCount() + " nodes and " + base.edgeCount()
+                        + " edges from the base snapshot; " + inputFiles.size() + " new input files");
+            }
+            for (String inputFile : inputFiles) {
+                manifest.add(inputFile);
+            }
 
-            // Create file progress bar
-            try (ProgressBar fileProgress = createFileProgressBar(totalFiles)) {
-                // Process each input file
-                for (String inputFile : inputFiles) {
-                    processFile(inputFile, nodes, edgeMap, nodeType);
-                    fileProgress.step();
+            if (approximate) {
+                // Count every pair in the sketch, then read the input again to collect the edges
+                // whose estimates pass the threshold
+                ApproximateAggregator aggregator = new ApproximateAggregator(nodes,
+                        new CountMinSketch(sketchDepth, sketchMemory), minWeight, maxEdges, maxPairs);
+                metrics.time("parse", () -> parseFiles(inputFiles, nodes, nodeType, inputMode, threads, metrics,
+                        (worker, workerCount) -> aggregator.newCounter()));
+                System.out.println("\nCollecting edges above the weight threshold");
+                CoOccurrenceAccumulator accumulator = metrics.time("collect", () -> {
+                    parseFiles(inputFiles, nodes, nodeType, inputMode, threads,
+                            (worker, workerCount) -> aggregator.newCollector(workerCount));
+                    return aggregator.finish();
+                });
+                // Collecting already applied minWeight
+                if (topK > 0) {
+                    metrics.time("prune", () -> accumulator.keepTopK(topK));
+                }
+                GraphStatistics statistics = metrics.time("statistics", () -> GraphStatistics.of(accumulator));
+
+                GraphWriter writer = outputFormat.createWriter(outputPath, threads, compress);
+                metrics.time("write", () -> {
+                    try (writer) {
+                        writer.writeNodes(nodes, statistics);
+                        accumulator.forEachEdge(writer::writeEdge);
+                    }
+                });
+                projections.get(0).edgeCount = accumulator.edgeCount();
+
+                aggregator.printErrorBounds();
+                statistics.print(nodes);
+            } else if (memoryBudget > 0) {
+                // Spill sorted pair runs to disk while parsing, then merge them into the output
+                Files.createDirectories(tempDir);
+                ExternalPairAggregator aggregator = new ExternalPairAggregator(nodes, memoryBudget, tempDir);
+                List<ExternalPairAggregator.RunBuffer> buffers = Collections.synchronizedList(new ArrayList<>());
+                if (base != null) {
+                    CsrGraph baseGraph = base;
+                    metrics.time("add-base", () -> aggregator.addGraph(baseGraph));
+                    base = null;
+                }
+                metrics.time("parse", () -> {
+                    parseFiles(inputFiles, nodes, nodeType, inputMode, threads, metrics, (worker, workerCount) -> {
+                        ExternalPairAggregator.RunBuffer buffer = aggregator.newRunBuffer(workerCount);
+                        buffers.add(buffer);
+                        return playlist -> buffer.addPlaylist(playlist.ids[0], playlist.trackCount);
+                    });
+                    for (ExternalPairAggregator.RunBuffer buffer : buffers) {
+                        buffer.spill();
+                    }
+                });
+                System.out.println("\nMerging " + aggregator.runCount() + " sorted runs");
+
+                // Runs are merged as the output is written, so the write stage includes the merge.
+                // Statistics are recorded from the edges that leave the pruner, and the nodes are
+                // written at close, once the statistics are complete.
+                GraphStatistics statistics = new GraphStatistics(nodes.size(), aggregator.occurrences(nodes.size()));
+                GraphWriter output = outputFormat.createWriter(outputPath, threads, compress, true);
+                GraphWriter writer = createPruner(statistics.recorder(output), minWeight, topK);
+                metrics.time("write", () -> {
+                    try (writer) {
+                        if (output.writesNodesOnClose()) {
+                            writer.writeNodes(nodes, statistics);
+                        } else {
+                            writer.writeNodes(nodes);
+                        }
+                        aggregator.merge(writer::writeEdge);
+                    }
+                });
+                projections.get(0).edgeCount = statistics.edgeCount();
+                statistics.print(nodes);
+            } else {
+                // Parse the input files once, into one accumulator per worker thread for every graph
+                int workerCount = Math.max(1, Math.min(threads, inputFiles.size()));
+                List<String> fields = new ArrayList<>();
+                List<NodeDictionary> dictionaries = new ArrayList<>();
+                for (Projection projection : projections) {
+                    projection.accumulators = new CoOccurrenceAccumulator[workerCount];
+                    if (projection.nodeType != null) {
+                        projection.field = fields.size();
+                        fields.add(projection.nodeType.field);
+                        dictionaries.add(projection.nodes);
+                    }
+                }
+                // The playlist-track graph reads track ids, from the TRACK graph's field if it has one
+                int trackField = fields.indexOf(NodeType.TRACK.field);
+                if (bipartite && trackField < 0) {
+                    trackField = fields.size();
+                    fields.add(NodeType.TRACK.field);
+                    dictionaries.add(new NodeDictionary());
+                }
+                NodeDictionary trackNodes = trackField >= 0 ? dictionaries.get(trackField) : null;
+                for (Projection projection : projections) {
+                    if (projection.nodeType == null) {
+                        projection.field = trackField;
+                    }
                 }
+
+                metrics.trackEdgeTables(() -> sumOver(projections, CoOccurrenceAccumulator::edgeCount),
+                        () -> sumOver(projections, CoOccurrenceAccumulator::tableCapacity));
+                metrics.time("parse", () -> parseFiles(inputFiles, fields.toArray(new String[0]),
+                        dictionaries.toArray(new NodeDictionary[0]), inputMode, threads, metrics, (worker, count) -> {
+                        PlaylistReader.Handler[] handlers = new PlaylistReader.Handler[projections.size()];
+                        for (int p = 0; p < handlers.length; p++) {
+                            Projection projection = projections.get(p);
+                            CoOccurrenceAccumulator local = new CoOccurrenceAccumulator(projection.nodes, count);
+                            projection.accumulators[worker] = local;
+                            int field = projection.field;
+                            handlers[p] = projection.nodeType != null
+                                    ? playlist -> processPlaylist(playlist, field, local)
+                                    : new PlaylistTrackHandler(local, trackNodes, field);
+                        }
+                        if (handlers.length == 1) {
+                            return handlers[0];
+                        }
+                        return playlist -> {
+                            for (PlaylistReader.Handler handler : handlers) {
+                                handler.playlist(playlist);
+                            }
+                        };
+                    }));
+
+                for (Projection projection : projections) {
+                    if (multiple) {
+                        System.out.println("\n" + projection.name + " graph:");
+                    }
+                    // The base weights go in before the merge, which drops edges below minWeight
+                    if (base != null) {
+                        CsrGraph baseGraph = base;
+                        metrics.time("add-base", () -> projection.accumulators[0].addGraph(baseGraph));
+                        base = null;
+                    }
+                    CoOccurrenceAccumulator accumulator = metrics.time("merge",
+                            () -> mergeAccumulators(projection.accumulators, minWeight));
+                    if (topK > 0) {
+                        metrics.time("prune", () -> accumulator.keepTopK(topK));
+                    }
+                    // Degrees and strengths need the merged edges, and are written with the nodes
+                    GraphStatistics statistics = metrics.time("statistics", () -> GraphStatistics.of(accumulator));
+
+                    // Output graph in the requested format
+                    GraphWriter writer = outputFormat.createWriter(projection.outputPath, threads, compress);
+                    metrics.time("write", () -> {
+                        try (writer) {
+                            writer.writeNodes(projection.nodes, statistics);
+                            accumulator.forEachEdge(writer::writeEdge);
+                        }
+                    });
+                    projection.edgeCount = accumulator.edgeCount();
+                    statistics.print(projection.nodes);
+                    // Release this graph's edges before the next one is written
+                    projection.accumulators = null;
+                }
+            }
+            for (Projection projection : projections) {
+                metrics.recordOutput(projection.name, projection.nodes.size(), projection.edgeCount, Paths.get(projection.outputPath));
             }
 
-            // Output graph to GraphML
-            writeGraphML(outputPath, nodes, edgeMap.values());
+            // A binary snapshot can be the base of a later incremental run unless edges were pruned
+            // or weights are estimates
+            if (outputFormat == OutputFormat.BIN && minWeight <= 1 && topK == 0 && !approximate) {
+                for (Projection projection : projections) {
+                    if (projection.nodeType != null) {
+                        SnapshotManifest projectionManifest = new SnapshotManifest(projection.nodeType.name());
+                        projectionManifest.files.addAll(manifest.files);
+                        projectionManifest.write(projection.outputPath);
+                    }
+                }
+            }
 
             // Print preliminary results
-            System.out.println("\nNumber of nodes: " + nodes.size());
-            System.out.println("Number of edges: " + edgeMap.size());
-            System.out.println("Processing complete. Output written to: " + outputPath);
+            for (Projection projection : projections) {
+                System.out.println(multiple ? "\n" + projection.name + " graph" : "");
+                System.out.println("Number of nodes: " + projection.nodes.size());
+                System.out.println("Number of edges: " + projection.edgeCount);
+                System.out.println("Processing complete. Output written to: " + projection.outputPath);
+                if (outputFormat == OutputFormat.NEO4J_CSV) {
+                    System.out.println("Import with: " + Neo4jCsvWriter.importCommand(projection.outputPath, compress));
+                }
+            }
 
-            // Add this method to calculate statistics
-            printEdgeStatistics(edgeMap.values());
+            metrics.close();
+            if (metricsPath != null) {
+                System.out.println("Metrics written to: " + metricsPath);
+            }
+            if (recording != null) {
+                recording.stop();
+                recording.close();
+                System.out.println("Flight recording written to: " + jfrPath);
+            }
         } catch (ParseException e) {
             System.err.println("Error parsing command line arguments: " + e.getMessage());
             formatter.printHelp("GraphMLGenerator", options);
@@ -152,170 +644,222 @@ public class GraphMLGenerator {
         }
     }
 
-    private static void processFile(String inputFile, Set<String> nodes, Map<Edge, Edge> edgeMap, NodeType nodeType) throws IOException {
-        Gson gson = new Gson();
-        int totalPlaylists = 0;
-        
-        // First pass to get playlist count from slice info
-        try (JsonReader reader = new JsonReader(new FileReader(inputFile))) {
-            reader.beginObject();
-            while (reader.hasNext()) {
-                String name = reader.nextName();
-                if ("info".equals(name)) {
-                    JsonObject info = gson.fromJson(reader, JsonObject.class);
-                    String slice = info.get("slice").getAsString();
-                    String[] range = slice.split("-");
-                    totalPlaylists = Integer.parseInt(range[1]) - Integer.parseInt(range[0]) + 1;
-                } else {
-                    reader.skipValue();
+    // Puts an EdgePruner in front of writer when pruning is requested, so that weak edges are
+    // dropped as they stream out of the out-of-core merge. The in-memory modes prune the
+    // accumulator itself instead.
+    private static GraphWriter createPruner(GraphWriter writer, int minWeight, int topK) {
+        return minWeight > 1 || topK > 0 ? new EdgePruner(writer, minWeight, topK) : writer;
+    }
+
+    // Starts a flight recording with the JDK's default settings plus the stage events, written
+    // to path when it is stopped
+    private static Recording startRecording(String path) throws IOException {
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (java.text.ParseException e) {
+            throw new IOException("Invalid JFR configuration", e);
+        }
+        recording.enable(RunMetrics.StageEvent.class);
+        recording.setDestination(Paths.get(path));
+        recording.start();
+        return recording;
+    }
+
+    // Creates the playlist handler of one worker; each worker runs on a single thread
+    interface WorkerFactory {
+        PlaylistReader.Handler create(int worker, int workerCount) throws IOException;
+    }
+
+    // Parses every input file, passing its playlists to the handler of the worker that reads
+    // it. With several threads each worker pulls the next unprocessed file, so no locking is
+    // needed on the hot path; per-file progress bars are only shown on a single thread.
+    static void parseFiles(List<String> inputFiles, NodeDictionary nodes, NodeType nodeType,
+                           InputMode inputMode, int threads, WorkerFactory workers) throws IOException {
+        parseFiles(inputFiles, nodes, nodeType, inputMode, threads, null, workers);
+    }
+
+    // As above, counting files, bytes, playlists and pairs in metrics if it is not null
+    static void parseFiles(List<String> inputFiles, NodeDictionary nodes, NodeType nodeType, InputMode inputMode,
+                           int threads, RunMetrics metrics, WorkerFactory workers) throws IOException {
+        parseFiles(inputFiles, new String[]{nodeType.field}, new NodeDictionary[]{nodes}, inputMode, threads,
+                metrics, workers);
+    }
+
+    // As above, reading every track field in fields into the dictionary at the same index, so
+    // that playlist.ids[f] holds the ids of fields[f]
+    static void parseFiles(List<String> inputFiles, String[] fields, NodeDictionary[] dictionaries,
+                           InputMode inputMode, int threads, RunMetrics metrics, WorkerFactory workers)
+            throws IOException {
+        if (metrics != null) {
+            WorkerFactory uncounted = workers;
+            workers = (worker, workerCount) -> metrics.counting(uncounted.create(worker, workerCount));
+        }
+        int workerCount = Math.min(threads, inputFiles.size());
+        try (ProgressBar fileProgress = createFileProgressBar(inputFiles.size())) {
+            if (workerCount <= 1) {
+                PlaylistReader.Handler handler = workers.create(0, 1);
+                PlaylistReader reader = inputMode.createReader(fields, dictionaries);
+                for (String inputFile : inputFiles) {
+                    processFile(inputFile, reader, handler, true);
+                    countFile(inputFile, metrics);
+                    fileProgress.step();
                 }
+                return;
             }
-            reader.endObject();
-        }
 
-        // Second pass to process playlists with progress bar
-        try (JsonReader reader = new JsonReader(new FileReader(inputFile));
-             ProgressBar pb = new ProgressBar("Processing " + Paths.get(inputFile).getFileName(), totalPlaylists)) {
-            
-            reader.beginObject();
-            while (reader.hasNext()) {
-                String name = reader.nextName();
-                if ("playlists".equals(name)) {
-                    reader.beginArray();
-                    while (reader.hasNext()) {
-                        JsonObject playlistObject = gson.fromJson(reader, JsonObject.class);
-                        processPlaylist(playlistObject, nodes, edgeMap, nodeType);
-                        pb.step();
-                    }
-                    reader.endArray();
-                } else {
-                    reader.skipValue();
+            AtomicInteger nextFile = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int w = 0; w < workerCount; w++) {
+                    PlaylistReader.Handler handler = workers.create(w, workerCount);
+                    PlaylistReader reader = inputMode.createReader(fields, dictionaries);
+                    futures.add(executor.submit(() -> {
+                        int index;
+                        while ((index = nextFile.getAndIncrement()) < inputFiles.size()) {
+                            processFile(inputFiles.get(index), reader, handler, false);
+                            countFile(inputFiles.get(index), metrics);
+                            fileProgress.step();
+                        }
+                        return null;
+                    }));
                 }
+                awaitAll(futures);
+            } finally {
+                executor.shutdown();
             }
-            reader.endObject();
         }
     }
 
-    private static void processPlaylist(JsonObject playlistObject, Set<String> nodes, Map<Edge, Edge> edgeMap, NodeType nodeType) throws IOException {
-        JsonArray tracksArray = playlistObject.getAsJsonArray("tracks");
-        List<String> nodeIds = new ArrayList<>();
-
-        // Pre-allocate ArrayList capacity
-        int trackCount = tracksArray.size();
-        nodeIds = new ArrayList<>(trackCount);
+    // Merges edge shard i of every worker's accumulator into the first one, one shard per thread
+    static CoOccurrenceAccumulator mergeAccumulators(CoOccurrenceAccumulator[] accumulators) throws IOException {
+        return mergeAccumulators(accumulators, 1);
+    }
 
-        for (JsonElement trackElement : tracksArray) {
-            JsonObject trackObject = trackElement.getAsJsonObject();
-            String nodeId;
-            if (nodeType == NodeType.TRACK) {
-                nodeId = trackObject.get("track_uri").getAsString();
-            } else { // NodeType.ARTIST
-                nodeId = trackObject.get("artist_uri").getAsString();
+    // As above, dropping the edges lighter than minWeight from each shard as soon as it is
+    // merged, so the merged graph is never held unpruned
+    static CoOccurrenceAccumulator mergeAccumulators(CoOccurrenceAccumulator[] accumulators, int minWeight)
+            throws IOException {
+        int workerCount = accumulators.length;
+        if (workerCount == 1) {
+            if (minWeight > 1) {
+                for (int shard = 0; shard < accumulators[0].shardCount(); shard++) {
+                    accumulators[0].pruneShard(shard, minWeight);
+                }
             }
-            nodeIds.add(nodeId);
-            nodes.add(nodeId);
+            return accumulators[0];
         }
-
-        // Generate unique node pairs and add to edges with weights
-        for (int i = 0; i < nodeIds.size(); i++) {
-            for (int j = i + 1; j < nodeIds.size(); j++) {
-                String node1 = nodeIds.get(i);
-                String node2 = nodeIds.get(j);
-                
-                // Skip self-edges
-                if (node1.equals(node2)) {
-                    continue;
-                }
-                
-                Edge newEdge = new Edge(node1, node2);
-                Edge existingEdge = edgeMap.get(newEdge);
-                
-                if (existingEdge != null) {
-                    existingEdge.incrementWeight();
-                } else {
-                    edgeMap.put(newEdge, newEdge);
-                }
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int shard = 0; shard < accumulators[0].shardCount(); shard++) {
+                int s = shard;
+                futures.add(executor.submit(() -> {
+                    for (int w = 1; w < workerCount; w++) {
+                        accumulators[0].mergeShard(accumulators[w], s);
+                    }
+                    if (minWeight > 1) {
+                        accumulators[0].pruneShard(s, minWeight);
+                    }
+                    return null;
+                }));
             }
+            for (int w = 1; w < workerCount; w++) {
+                accumulators[0].mergeOccurrences(accumulators[w]);
+            }
+            awaitAll(futures);
+        } finally {
+            executor.shutdown();
         }
+        return accumulators[0];
     }
 
-    // Modify Edge class to be used as HashMap key
-    static class Edge {
-        String node1;
-        String node2;
-        int weight;
-
-        Edge(String node1, String node2) {
-            // Ensure consistent ordering for undirected edges
-            if (node1.compareTo(node2) <= 0) {
-                this.node1 = node1;
-                this.node2 = node2;
-            } else {
-                this.node1 = node2;
-                this.node2 = node1;
+    private static void awaitAll(List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
-            this.weight = 1;
+            throw new IOException("Failed to process files", e.getCause());
         }
+    }
 
-        public void incrementWeight() {
-            this.weight++;
+    private static void processFile(String inputFile, PlaylistReader reader, PlaylistReader.Handler handler,
+                                    boolean showProgress) throws IOException {
+        // Size the progress bar from the file name if possible; otherwise it starts
+        // indeterminate and the reader fills in the count if "info" comes before "playlists"
+        int totalPlaylists = PlaylistReader.playlistCountFromFileName(inputFile);
+        try (ProgressBar pb = showProgress
+                ? new ProgressBar("Processing " + Paths.get(inputFile).getFileName(), totalPlaylists)
+                : null) {
+            reader.read(inputFile, pb, handler);
         }
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (!(o instanceof Edge)) return false;
-            Edge edge = (Edge) o;
-            return node1.equals(edge.node1) && node2.equals(edge.node2);
+    private static void countFile(String inputFile, RunMetrics metrics) throws IOException {
+        if (metrics != null) {
+            metrics.filesRead.increment();
+            metrics.bytesRead.add(Files.size(Paths.get(inputFile)));
         }
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(node1, node2);
+    // Sums a gauge over the accumulators created so far, for the graphs not yet written
+    private static long sumOver(List<Projection> projections, ToLongFunction<CoOccurrenceAccumulator> gauge) {
+        long total = 0;
+        for (Projection projection : projections) {
+            CoOccurrenceAccumulator[] accumulators = projection.accumulators;
+            if (accumulators == null) {
+                continue;
+            }
+            for (CoOccurrenceAccumulator accumulator : accumulators) {
+                if (accumulator != null) {
+                    total += gauge.applyAsLong(accumulator);
+                }
+            }
         }
+        return total;
     }
 
-    // Modify writeGraphML method to include weight attribute
-    private static void writeGraphML(String graphmlFile, Set<String> nodes, Collection<Edge> edges) throws IOException {
-        // Create output directory if it doesn't exist
-        Path outputPath = Paths.get(graphmlFile);
-        Files.createDirectories(outputPath.getParent());
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(graphmlFile))) {
-            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            writer.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"\n");
-            writer.write("    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n");
-            writer.write("    xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns\n");
-            writer.write("    http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd\">\n");
-            
-            // Add weight attribute definition
-            writer.write("  <key id=\"weight\" for=\"edge\" attr.name=\"weight\" attr.type=\"int\"/>\n");
-            
-            writer.write("  <graph id=\"G\" edgedefault=\"undirected\">\n");
-
-            // Write nodes
-            for (String nodeId : nodes) {
-                writer.write("    <node id=\"" + escapeXML(nodeId) + "\"/>\n");
-            }
-
-            // Write edges with weights
-            int edgeId = 0;
-            for (Edge edge : edges) {
-                writer.write("    <edge id=\"e" + edgeId++ + "\" source=\"" + escapeXML(edge.node1) + 
-                           "\" target=\"" + escapeXML(edge.node2) + "\">\n");
-                writer.write("      <data key=\"weight\">" + edge.weight + "</data>\n");
-                writer.write("    </edge>\n");
-            }
-
-            writer.write("  </graph>\n");
-            writer.write("</graphml>\n");
-        }
+    private static void processPlaylist(PlaylistReader.Playlist playlist, int field,
+                                        CoOccurrenceAccumulator accumulator) {
+        // Generate unique node pairs and add to edges with weights
+        accumulator.addPlaylist(playlist.ids[field], playlist.trackCount);
+    }
+
+    // Output path of one of several graphs: the graph's name goes before the extension, so
+    // "graph.graphml.gz" becomes "graph.track.graphml.gz" and a NEO4J_CSV "export" directory
+    // becomes "export.track"
+    static String projectionPath(String outputPath, String name) {
+        Path path = Paths.get(outputPath);
+        String fileName = path.getFileName().toString();
+        int dot = fileName.indexOf('.', 1);
+        String suffix = "." + name.toLowerCase();
+        String projected = dot < 0 ? fileName + suffix : fileName.substring(0, dot) + suffix + fileName.substring(dot);
+        return path.resolveSibling(projected).toString();
     }
 
-    // Helper method to escape XML special characters
-    private static String escapeXML(String s) {
-        return s.replace("&", "&amp;").replace("\"", "&quot;").replace("'", "&apos;")
-                .replace("<", "&lt;").replace(">", "&gt;");
+    // Parses a byte count with an optional k, m or g suffix
+    static long parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        long multiplier = 1;
+        if (value.endsWith("k")) {
+            multiplier = 1L << 10;
+        } else if (value.endsWith("m")) {
+            multiplier = 1L << 20;
+        } else if (value.endsWith("g")) {
+            multiplier = 1L << 30;
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * multiplier;
     }
 
     // Replace the old printProgressBar method with a new method for file progress
@@ -327,43 +871,4 @@ public class GraphMLGenerator {
                 .setStyle(ProgressBarStyle.ASCII)
                 .build();
     }
-
-    // Add this method to calculate statistics
-    private static void printEdgeStatistics(Collection<Edge> edges) {
-        if (edges.isEmpty()) {
-            System.out.println("No edges to analyze");
-            return;
-        }
-
-        // Get all weights
-        List<Integer> weights = edges.stream()
-                .map(e -> e.weight)
-                .sorted()
-                .collect(Collectors.toList());
-
-        // Find top 10 edges
-        List<Edge> topEdges = edges.stream()
-                .sorted(Comparator.comparingInt((Edge e) -> e.weight).reversed())
-                .limit(10)
-                .collect(Collectors.toList());
-
-        int min = weights.get(0);
-        int max = weights.get(weights.size() - 1);
-        double avg = weights.stream().mapToInt(Integer::intValue).average().getAsDouble();
-        int median = weights.get(weights.size() / 2);
-
-        System.out.println("\nEdge Weight Statistics:");
-        System.out.println("Minimum weight: " + min);
-        System.out.println("Maximum weight: " + max);
-        System.out.println("Average weight: " + String.format("%.2f", avg));
-        System.out.println("Median weight: " + median);
-        
-        System.out.println("\nTop 10 Strongest Connections:");
-        for (int i = 0; i < topEdges.size(); i++) {
-            Edge edge = topEdges.get(i);
-            System.out.println(String.format("%d. Weight: %d", i + 1, edge.weight));
-            System.out.println("   Node 1: " + edge.node1);
-            System.out.println("   Node 2: " + edge.node2);
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,316 @@
+package simengh.spotify_network_parser;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Writes GraphML with an edge weight attribute and, when node statistics are given, degree,
+// strength and occurrences node attributes. Each node id is escaped and encoded once,
+// edges are formatted straight into large byte buffers, and full buffers are handed to a
+// background thread that compresses (for a ".gz" output path) and writes them, so edge
+// iteration overlaps with deflate and disk I/O. With nodesOnClose the node elements follow
+// the edges, which GraphML allows, so statistics gathered while the edges are written can
+// still be attached to them.
+class GraphMLWriter implements GraphWriter {
+    private static final int BUFFER_SIZE = 4 << 20;
+    private static final int BUFFER_COUNT = 4;
+
+    private static final byte[] HEADER = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"\n"
+            + "    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+            + "    xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns\n"
+            + "    http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd\">\n"
+            + "  <key id=\"weight\" for=\"edge\" attr.name=\"weight\" attr.type=\"int\"/>\n")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NODE_KEYS = bytes(
+            "  <key id=\"degree\" for=\"node\" attr.name=\"degree\" attr.type=\"int\"/>\n"
+            + "  <key id=\"strength\" for=\"node\" attr.name=\"strength\" attr.type=\"long\"/>\n"
+            + "  <key id=\"occurrences\" for=\"node\" attr.name=\"occurrences\" attr.type=\"int\"/>\n");
+    private static final byte[] GRAPH_START = bytes("  <graph id=\"G\" edgedefault=\"undirected\">\n");
+    private static final byte[] FOOTER = ("  </graph>\n"
+            + "</graphml>\n").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NODE_START = bytes("    <node id=\"");
+    private static final byte[] NODE_END = bytes("\"/>\n");
+    private static final byte[] NODE_DEGREE = bytes("\">\n      <data key=\"degree\">");
+    private static final byte[] NODE_STRENGTH = bytes("</data>\n      <data key=\"strength\">");
+    private static final byte[] NODE_OCCURRENCES = bytes("</data>\n      <data key=\"occurrences\">");
+    private static final byte[] NODE_DATA_END = bytes("</data>\n    </node>\n");
+    private static final byte[] EDGE_START = bytes("    <edge id=\"e");
+    private static final byte[] EDGE_SOURCE = bytes("\" source=\"");
+    private static final byte[] EDGE_TARGET = bytes("\" target=\"");
+    private static final byte[] EDGE_WEIGHT = bytes("\">\n      <data key=\"weight\">");
+    private static final byte[] EDGE_END = bytes("</data>\n    </edge>\n");
+
+    // Chunks cycle from free to full (filled by the caller) and back (drained by the flusher)
+    private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<Chunk> fullChunks = new ArrayBlockingQueue<>(BUFFER_COUNT + 2);
+    private final Thread flusher;
+    private final boolean nodesOnClose;
+    private volatile IOException flushError;
+
+    private Chunk chunk;
+    private byte[][] nodeIds;
+    // Statistics of the nodes still to be written at close, if they were given
+    private GraphStatistics statistics;
+    private boolean nodesPending;
+    private long edgeId;
+    private boolean graphStarted;
+
+    private static class Chunk {
+        // Marks the end of the output for the flusher
+        static final Chunk END = new Chunk(new byte[0], false);
+
+        final byte[] bytes;
+        final boolean pooled;
+        int length;
+
+        Chunk(byte[] bytes, boolean pooled) {
+            this.bytes = bytes;
+            this.pooled = pooled;
+        }
+    }
+
+    GraphMLWriter(String outputFile) throws IOException {
+        this(outputFile, false);
+    }
+
+    GraphMLWriter(String outputFile, boolean nodesOnClose) throws IOException {
+        this.nodesOnClose = nodesOnClose;
+        Path outputPath = Paths.get(outputFile).toAbsolutePath();
+        Files.createDirectories(outputPath.getParent());
+
+        OutputStream out = new FileOutputStream(outputPath.toFile());
+        if (outputFile.endsWith(".gz")) {
+            // Favour speed: the output is mostly repeated markup and compresses well anyway
+            out = new GZIPOutputStream(out, 1 << 16) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        }
+
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            freeChunks.add(new Chunk(new byte[BUFFER_SIZE], true));
+        }
+        chunk = freeChunks.remove();
+
+        OutputStream stream = out;
+        flusher = new Thread(() -> drain(stream), "graphml-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        put(HEADER);
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes) throws IOException {
+        startGraph();
+        encodeNodeIds(nodes);
+        if (nodesOnClose) {
+            nodesPending = true;
+        } else {
+            putNodes(null);
+        }
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes, GraphStatistics statistics) throws IOException {
+        // Keys must come before the graph element
+        put(NODE_KEYS);
+        startGraph();
+        encodeNodeIds(nodes);
+        if (nodesOnClose) {
+            this.statistics = statistics;
+            nodesPending = true;
+        } else {
+            putNodes(statistics);
+        }
+    }
+
+    @Override
+    public boolean writesNodesOnClose() {
+        return nodesOnClose;
+    }
+
+    private void encodeNodeIds(NodeDictionary nodes) {
+        int nodeCount = nodes.size();
+        nodeIds = new byte[nodeCount][];
+        for (int id = 0; id < nodeCount; id++) {
+            nodeIds[id] = escapeXML(nodes.uriOf(id)).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private void putNodes(GraphStatistics statistics) throws IOException {
+        for (int id = 0; id < nodeIds.length; id++) {
+            put(NODE_START);
+            put(nodeIds[id]);
+            if (statistics == null) {
+                put(NODE_END);
+                continue;
+            }
+            put(NODE_DEGREE);
+            putNumber(statistics.degrees[id]);
+            put(NODE_STRENGTH);
+            putNumber(statistics.strengths[id]);
+            put(NODE_OCCURRENCES);
+            putNumber(statistics.occurrences[id]);
+            put(NODE_DATA_END);
+        }
+    }
+
+    @Override
+    public void writeEdge(int source, int target, int weight) throws IOException {
+        put(EDGE_START);
+        putNumber(edgeId++);
+        put(EDGE_SOURCE);
+        put(nodeIds[source]);
+        put(EDGE_TARGET);
+        put(nodeIds[target]);
+        put(EDGE_WEIGHT);
+        putNumber(weight);
+        put(EDGE_END);
+    }
+
+    @Override
+    public void close() throws IOException {
+        startGraph();
+        if (nodesPending) {
+            putNodes(statistics);
+            nodesPending = false;
+        }
+        put(FOOTER);
+        handOff();
+        enqueue(Chunk.END);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing GraphML");
+        }
+        if (flushError != null) {
+            throw flushError;
+        }
+    }
+
+    private void startGraph() throws IOException {
+        if (!graphStarted) {
+            put(GRAPH_START);
+            graphStarted = true;
+        }
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > chunk.bytes.length - chunk.length) {
+            handOff();
+            if (bytes.length > chunk.bytes.length) {
+                // Only a pathologically long URI gets here; give it a chunk of its own
+                Chunk large = new Chunk(bytes, false);
+                large.length = bytes.length;
+                enqueue(large);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, chunk.bytes, chunk.length, bytes.length);
+        chunk.length += bytes.length;
+    }
+
+    // Formats a non-negative number as ASCII digits without allocating
+    private void putNumber(long value) throws IOException {
+        if (chunk.bytes.length - chunk.length < 20) {
+            handOff();
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        byte[] bytes = chunk.bytes;
+        int end = chunk.length + digits;
+        for (int i = end - 1; i >= chunk.length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        chunk.length = end;
+    }
+
+    // Passes the current chunk to the flusher and continues in a free one, waiting for the
+    // flusher to return one if all are in use
+    private void handOff() throws IOException {
+        if (chunk.length == 0) {
+            return;
+        }
+        enqueue(chunk);
+        try {
+            chunk = freeChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing GraphML");
+        }
+        chunk.length = 0;
+    }
+
+    private void enqueue(Chunk full) throws IOException {
+        if (flushError != null) {
+            throw flushError;
+        }
+        try {
+            fullChunks.put(full);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing GraphML");
+        }
+    }
+
+    private void drain(OutputStream out) {
+        try {
+            Chunk full;
+            while ((full = fullChunks.take()) != Chunk.END) {
+                // After a failure keep recycling chunks so the writing thread never blocks
+                if (flushError == null) {
+                    try {
+                        out.write(full.bytes, 0, full.length);
+                    } catch (IOException e) {
+                        flushError = e;
+                    }
+                }
+                if (full.pooled) {
+                    freeChunks.put(full);
+                }
+            }
+        } catch (InterruptedException e) {
+            flushError = new InterruptedIOException("GraphML writer thread interrupted");
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (flushError == null) {
+                    flushError = e;
+                }
+            }
+        }
+    }
+
+    // Helper method to escape XML special characters, only copying strings that contain any
+    static String escapeXML(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '&' || c == '"' || c == '\'' || c == '<' || c == '>') {
+                return s.replace("&", "&amp;").replace("\"", "&quot;").replace("'", "&apos;")
+                        .replace("<", "&lt;").replace(">", "&gt;");
+            }
+        }
+        return s;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,226 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Node and edge statistics of an aggregated graph, gathered in one pass over its edges:
+// the degree and strength (sum of edge weights) of every node, its playlist occurrences as
+// counted while parsing, a histogram of edge weights and the strongest edges. Nothing is
+// sorted and memory does not grow with the edge count: weights below EXACT_WEIGHTS are
+// counted one by one and larger ones per power of two, and the strongest edges are kept
+// in a bounded min-heap.
+class GraphStatistics {
+    private static final int EXACT_WEIGHTS = 4096;
+    private static final int TOP_EDGES = 10;
+
+    final int[] degrees;
+    final long[] strengths;
+    final int[] occurrences;
+
+    private final long[] weightCounts = new long[EXACT_WEIGHTS];
+    // Weights of at least EXACT_WEIGHTS, by the position of their highest bit
+    private final long[] largeWeightCounts = new long[32];
+    private long edgeCount;
+    private long weightSum;
+    private int minWeight = Integer.MAX_VALUE;
+    private int maxWeight;
+
+    // Min-heap of the strongest edges, weakest and among equals latest at the root, so
+    // that ties go to the edge seen first
+    private final long[] topKeys = new long[TOP_EDGES];
+    private final int[] topWeights = new int[TOP_EDGES];
+    private final long[] topOrder = new long[TOP_EDGES];
+    private int topCount;
+
+    GraphStatistics(int nodeCount, int[] occurrences) {
+        degrees = new int[nodeCount];
+        strengths = new long[nodeCount];
+        this.occurrences = occurrences;
+    }
+
+    static GraphStatistics of(CoOccurrenceAccumulator accumulator) throws IOException {
+        int nodeCount = accumulator.nodes.size();
+        GraphStatistics statistics = new GraphStatistics(nodeCount, accumulator.occurrences(nodeCount));
+        accumulator.forEachEdge(statistics::addEdge);
+        return statistics;
+    }
+
+    // Wraps output so that every edge written to it is also added to these statistics
+    GraphWriter recorder(GraphWriter output) {
+        return new GraphWriter() {
+            @Override
+            public void writeNodes(NodeDictionary nodes) throws IOException {
+                output.writeNodes(nodes);
+            }
+
+            @Override
+            public void writeNodes(NodeDictionary nodes, GraphStatistics statistics) throws IOException {
+                output.writeNodes(nodes, statistics);
+            }
+
+            @Override
+            public void writeEdge(int source, int target, int weight) throws IOException {
+                addEdge(source, target, weight);
+                output.writeEdge(source, target, weight);
+            }
+
+            @Override
+            public boolean writesNodesOnClose() {
+                return output.writesNodesOnClose();
+            }
+
+            @Override
+            public void close() throws IOException {
+                output.close();
+            }
+        };
+    }
+
+    long edgeCount() {
+        return edgeCount;
+    }
+
+    void addEdge(int source, int target, int weight) {
+        degrees[source]++;
+        degrees[target]++;
+        strengths[source] += weight;
+        strengths[target] += weight;
+
+        if (weight < EXACT_WEIGHTS) {
+            weightCounts[Math.max(0, weight)]++;
+        } else {
+            largeWeightCounts[31 - Integer.numberOfLeadingZeros(weight)]++;
+        }
+        minWeight = Math.min(minWeight, weight);
+        maxWeight = Math.max(maxWeight, weight);
+        weightSum += weight;
+
+        long order = edgeCount++;
+        if (topCount < TOP_EDGES) {
+            int i = topCount++;
+            topKeys[i] = CoOccurrenceAccumulator.edgeKey(source, target);
+            topWeights[i] = weight;
+            topOrder[i] = order;
+            siftUp(i);
+        } else if (weight > topWeights[0]) {
+            topKeys[0] = CoOccurrenceAccumulator.edgeKey(source, target);
+            topWeights[0] = weight;
+            topOrder[0] = order;
+            siftDown(0);
+        }
+    }
+
+    // Smallest weight at or above which lie more than half of the edges; for a median above
+    // EXACT_WEIGHTS this is the power of two it falls under
+    int medianWeight() {
+        long rank = edgeCount / 2;
+        long seen = 0;
+        for (int w = 0; w < EXACT_WEIGHTS; w++) {
+            seen += weightCounts[w];
+            if (seen > rank) {
+                return w;
+            }
+        }
+        for (int bit = 0; bit < largeWeightCounts.length; bit++) {
+            seen += largeWeightCounts[bit];
+            if (seen > rank) {
+                return Math.max(EXACT_WEIGHTS, 1 << bit);
+            }
+        }
+        return maxWeight;
+    }
+
+    void print(NodeDictionary nodes) {
+        if (edgeCount == 0) {
+            System.out.println("No edges to analyze");
+            return;
+        }
+
+        System.out.println("\nEdge Weight Statistics:");
+        System.out.println("Minimum weight: " + minWeight);
+        System.out.println("Maximum weight: " + maxWeight);
+        System.out.println("Average weight: " + String.format("%.2f", (double) weightSum / edgeCount));
+        System.out.println("Median weight: " + medianWeight());
+
+        Integer[] top = new Integer[topCount];
+        for (int i = 0; i < topCount; i++) {
+            top[i] = i;
+        }
+        Arrays.sort(top, (a, b) -> topWeights[a] != topWeights[b]
+                ? Integer.compare(topWeights[b], topWeights[a])
+                : Long.compare(topOrder[a], topOrder[b]));
+        System.out.println("\nTop 10 Strongest Connections:");
+        for (int i = 0; i < topCount; i++) {
+            long key = topKeys[top[i]];
+            System.out.println(String.format("%d. Weight: %d", i + 1, topWeights[top[i]]));
+            System.out.println("   Node 1: " + nodes.uriOf(CoOccurrenceAccumulator.source(key)));
+            System.out.println("   Node 2: " + nodes.uriOf(CoOccurrenceAccumulator.target(key)));
+        }
+
+        int maxDegreeNode = 0;
+        int maxStrengthNode = 0;
+        int maxOccurrenceNode = 0;
+        for (int v = 1; v < degrees.length; v++) {
+            if (degrees[v] > degrees[maxDegreeNode]) {
+                maxDegreeNode = v;
+            }
+            if (strengths[v] > strengths[maxStrengthNode]) {
+                maxStrengthNode = v;
+            }
+            if (occurrences[v] > occurrences[maxOccurrenceNode]) {
+                maxOccurrenceNode = v;
+            }
+        }
+        System.out.println("\nNode Statistics:");
+        System.out.println("Average degree: " + String.format("%.2f", 2.0 * edgeCount / degrees.length));
+        System.out.println("Maximum degree: " + degrees[maxDegreeNode] + " (" + nodes.uriOf(maxDegreeNode) + ")");
+        System.out.println("Maximum strength: " + strengths[maxStrengthNode] + " (" + nodes.uriOf(maxStrengthNode) + ")");
+        System.out.println("Most playlist occurrences: " + occurrences[maxOccurrenceNode] + " ("
+                + nodes.uriOf(maxOccurrenceNode) + ")");
+    }
+
+    // Whether heap entry a ranks below entry b: lower weight, or equal weight and seen later
+    private boolean worse(int a, int b) {
+        return topWeights[a] < topWeights[b] || (topWeights[a] == topWeights[b] && topOrder[a] > topOrder[b]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= topCount) {
+                break;
+            }
+            if (child + 1 < topCount && worse(child + 1, child)) {
+                child++;
+            }
+            if (!worse(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long key = topKeys[a];
+        topKeys[a] = topKeys[b];
+        topKeys[b] = key;
+        int weight = topWeights[a];
+        topWeights[a] = topWeights[b];
+        topWeights[b] = weight;
+        long order = topOrder[a];
+        topOrder[a] = topOrder[b];
+        topOrder[b] = order;
+    }
+}
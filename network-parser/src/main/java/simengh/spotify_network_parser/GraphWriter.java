@@ -0,0 +1,24 @@
+package simengh.spotify_network_parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Output format for a co-occurrence graph. Nodes are written first, then every undirected
+// edge exactly once, in any order; closing the writer completes the file.
+interface GraphWriter extends Closeable {
+    void writeNodes(NodeDictionary nodes) throws IOException;
+
+    // Writes the nodes along with their degree, strength and playlist occurrences, for formats
+    // that have room for node attributes. The rest write the nodes alone.
+    default void writeNodes(NodeDictionary nodes, GraphStatistics statistics) throws IOException {
+        writeNodes(nodes);
+    }
+
+    void writeEdge(int source, int target, int weight) throws IOException;
+
+    // Whether node attributes are only laid out when the writer is closed, so statistics given
+    // with the nodes may still be filling in while the edges are written
+    default boolean writesNodesOnClose() {
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+package simengh.spotify_network_parser;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of durations in microseconds. Values below 64 get a bucket each;
+// above that every power of two is split into 32 buckets, so a percentile is off by at most
+// 1/64 of its value. Recording is lock-free and allocates nothing, so request threads can
+// share one histogram, and memory is fixed at about 10 KB however many values are recorded.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int LINEAR_LIMIT = 2 << SUB_BUCKET_BITS;
+    // Values are capped at about 12 days
+    private static final int MAX_BITS = 40;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_BITS - SUB_BUCKET_BITS - 1) * (1 << SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    void record(long micros) {
+        long value = Math.max(0, Math.min(micros, (1L << MAX_BITS) - 1));
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n > 0 ? (double) sum.sum() / n : 0.0;
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    // Smallest recorded value such that a fraction q of all values are at or below it, as
+    // the midpoint of its bucket; 0 if nothing was recorded
+    long percentile(double q) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(midpointOf(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1);
+        int top = (int) (value >>> shift);
+        return LINEAR_LIMIT + (shift - 1 << SUB_BUCKET_BITS) + top - (1 << SUB_BUCKET_BITS);
+    }
+
+    private static long midpointOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = ((bucket - LINEAR_LIMIT) >>> SUB_BUCKET_BITS) + 1;
+        long top = (1 << SUB_BUCKET_BITS) + ((bucket - LINEAR_LIMIT) & ((1 << SUB_BUCKET_BITS) - 1));
+        return (top << shift) + (1L << shift) / 2;
+    }
+}
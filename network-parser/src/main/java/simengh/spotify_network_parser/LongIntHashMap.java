@@ -0,0 +1,162 @@
+package simengh.spotify_network_parser;
+
+import java.util.Arrays;
+
+// Open-addressing hash map from primitive long keys to int values, used to hold edge
+// weights keyed by packed node id pairs. Keys and values live in two parallel arrays, so an
+// entry costs 12 bytes (divided by the load factor) and updates never allocate.
+// The key 0 marks an empty slot and cannot be stored.
+class LongIntHashMap {
+    private static final int DEFAULT_CAPACITY = 1 << 10;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    interface Visitor {
+        void visit(long key, int value);
+    }
+
+    LongIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    // Adds delta to the value stored for key, inserting it with value delta if absent
+    void addTo(long key, int delta) {
+        int index = indexOf(key);
+        long existing;
+        while ((existing = keys[index]) != 0) {
+            if (existing == key) {
+                values[index] += delta;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = delta;
+        if (++size > resizeThreshold) {
+            if (keys.length == MAX_CAPACITY) {
+                throw new IllegalStateException("Edge table is full (" + size + " entries)");
+            }
+            resize(keys.length << 1);
+        }
+    }
+
+    // Stores value for key, replacing any value it had
+    void put(long key, int value) {
+        int index = indexOf(key);
+        long existing;
+        while ((existing = keys[index]) != 0) {
+            if (existing == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > resizeThreshold) {
+            if (keys.length == MAX_CAPACITY) {
+                throw new IllegalStateException("Edge table is full (" + size + " entries)");
+            }
+            resize(keys.length << 1);
+        }
+    }
+
+    // Returns the value stored for key, or 0 if absent
+    int get(long key) {
+        int index = indexOf(key);
+        long existing;
+        while ((existing = keys[index]) != 0) {
+            if (existing == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return 0;
+    }
+
+    void addAll(LongIntHashMap other) {
+        long[] otherKeys = other.keys;
+        int[] otherValues = other.values;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != 0) {
+                addTo(otherKeys[i], otherValues[i]);
+            }
+        }
+    }
+
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    // Direct slot access for callers that need to iterate without a lambda (e.g. to throw
+    // checked exceptions). A slot is in use when keyAt returns a non-zero key.
+    int capacity() {
+        return keys.length;
+    }
+
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    int valueAt(int slot) {
+        return values[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+
+    private int indexOf(long key) {
+        // Murmur3 finalizer, so that packed id pairs with similar bits spread over the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int index = indexOf(key);
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package simengh.spotify_network_parser;
+
+import me.tongfei.progressbar.ProgressBar;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// PlaylistReader that memory-maps the slice file and scans the UTF-8 bytes directly.
+// Keys are matched as byte sequences and URI values are handed to the NodeDictionary as
+// byte ranges, so no characters are decoded and no String is created for a URI that has
+// already been seen. Only the subset of JSON the MPD uses needs to be fast; keys containing
+// escape sequences are never matched, and escaped values fall back to a decoded String.
+class MappedPlaylistReader extends PlaylistReader {
+    private static final byte[] PLAYLISTS = bytes("playlists");
+    private static final byte[] INFO = bytes("info");
+    private static final byte[] SLICE = bytes("slice");
+    private static final byte[] PID = bytes("pid");
+    private static final byte[] TRACKS = bytes("tracks");
+
+    private final byte[][] fieldBytes;
+
+    private String inputFile;
+    private MappedByteBuffer buffer;
+    private int limit;
+    private int pos;
+    // Set by scanString: where the contents of the string just scanned begin, and whether
+    // they contain a backslash escape
+    private int stringStart;
+    private boolean escaped;
+
+    MappedPlaylistReader(String[] fields, NodeDictionary[] dictionaries) {
+        super(fields, dictionaries);
+        fieldBytes = new byte[fields.length][];
+        for (int f = 0; f < fields.length; f++) {
+            fieldBytes[f] = bytes(fields[f]);
+        }
+    }
+
+    MappedPlaylistReader(String field, NodeDictionary dictionary) {
+        this(new String[]{field}, new NodeDictionary[]{dictionary});
+    }
+
+    @Override
+    void read(String inputFile, ProgressBar progress, Handler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                // A single mapping is limited to 2 GB; MPD slices are around 30 MB
+                super.read(inputFile, progress, handler);
+                return;
+            }
+            this.inputFile = inputFile;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            limit = buffer.limit();
+            pos = 0;
+
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    int keyEnd = scanString();
+                    int keyStart = stringStart;
+                    expect(':');
+                    if (keyEquals(keyStart, keyEnd, PLAYLISTS)) {
+                        expect('[');
+                        if (!consume(']')) {
+                            do {
+                                readPlaylist();
+                                handler.playlist(playlist);
+                                if (progress != null) {
+                                    progress.step();
+                                }
+                            } while (consume(','));
+                            expect(']');
+                        }
+                    } else if (keyEquals(keyStart, keyEnd, INFO) && progress != null && progress.getMax() < 0) {
+                        int count = readSliceCount();
+                        if (count > 0) {
+                            progress.maxHint(count);
+                        }
+                    } else {
+                        skipValue();
+                    }
+                } while (consume(','));
+                expect('}');
+            }
+        } finally {
+            buffer = null;
+            this.inputFile = null;
+        }
+    }
+
+    private void readPlaylist() throws IOException {
+        playlist.pid = -1;
+        playlist.trackCount = 0;
+        expect('{');
+        if (consume('}')) {
+            return;
+        }
+        do {
+            int keyEnd = scanString();
+            int keyStart = stringStart;
+            expect(':');
+            if (keyEquals(keyStart, keyEnd, PID)) {
+                playlist.pid = readInt();
+            } else if (keyEquals(keyStart, keyEnd, TRACKS)) {
+                expect('[');
+                if (!consume(']')) {
+                    do {
+                        readTrack();
+                    } while (consume(','));
+                    expect(']');
+                }
+            } else {
+                skipValue();
+            }
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void readTrack() throws IOException {
+        int track = playlist.trackCount;
+        playlist.ensureCapacity(track + 1);
+        int found = 0;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                int keyEnd = scanString();
+                int keyStart = stringStart;
+                expect(':');
+                int field = fieldIndex(keyStart, keyEnd);
+                if (field >= 0 && peek() == '"') {
+                    int valueEnd = scanString();
+                    int valueStart = stringStart;
+                    playlist.ids[field][track] = escaped
+                            ? dictionaries[field].idOf(decodeString(valueStart, valueEnd))
+                            : dictionaries[field].idOf(buffer, valueStart, valueEnd);
+                    found++;
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        if (found != fields.length) {
+            throw error("Track is missing one of the requested fields");
+        }
+        playlist.trackCount++;
+    }
+
+    private int readSliceCount() throws IOException {
+        int count = -1;
+        expect('{');
+        if (consume('}')) {
+            return count;
+        }
+        do {
+            int keyEnd = scanString();
+            int keyStart = stringStart;
+            expect(':');
+            if (keyEquals(keyStart, keyEnd, SLICE) && peek() == '"') {
+                int valueEnd = scanString();
+                int valueStart = stringStart;
+                count = playlistCountFromSlice(decodeString(valueStart, valueEnd));
+            } else {
+                skipValue();
+            }
+        } while (consume(','));
+        expect('}');
+        return count;
+    }
+
+    private int fieldIndex(int start, int end) {
+        for (int f = 0; f < fieldBytes.length; f++) {
+            if (keyEquals(start, end, fieldBytes[f])) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int start, int end, byte[] name) {
+        if (end - start != name.length || escaped) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Positions after the closing quote of the string at pos and returns the index of that
+    // quote, so the contents are [stringStart, returned index)
+    private int scanString() throws IOException {
+        if (peek() != '"') {
+            throw error("Expected a string");
+        }
+        escaped = false;
+        stringStart = pos + 1;
+        int i = stringStart;
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                pos = i + 1;
+                return i;
+            }
+            if (b == '\\') {
+                escaped = true;
+                i++;
+            }
+            i++;
+        }
+        throw error("Unterminated string");
+    }
+
+    private int readInt() throws IOException {
+        skipWhitespace();
+        boolean negative = pos < limit && buffer.get(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        int start = pos;
+        int value = 0;
+        byte b;
+        while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            pos++;
+        }
+        if (pos == start) {
+            throw error("Expected an integer");
+        }
+        return negative ? -value : value;
+    }
+
+    // Skips one value of any type by counting brackets, stepping over strings whole
+    private void skipValue() throws IOException {
+        skipWhitespace();
+        int depth = 0;
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b == '"') {
+                scanString();
+                if (depth == 0) {
+                    return;
+                }
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (depth == 0) {
+                    return;
+                }
+                if (--depth == 0) {
+                    pos++;
+                    return;
+                }
+            } else if (b == ',' && depth == 0) {
+                return;
+            }
+            pos++;
+        }
+        throw error("Unexpected end of file");
+    }
+
+    private String decodeString(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        String raw = new String(bytes, StandardCharsets.UTF_8);
+        if (raw.indexOf('\\') < 0) {
+            return raw;
+        }
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = raw.charAt(++i);
+            switch (next) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default: sb.append(next);
+            }
+        }
+        return sb.toString();
+    }
+
+    private byte peek() throws IOException {
+        skipWhitespace();
+        if (pos >= limit) {
+            throw error("Unexpected end of file");
+        }
+        return buffer.get(pos);
+    }
+
+    private boolean consume(char c) throws IOException {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws IOException {
+        if (!consume(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at byte " + pos + " of " + inputFile);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
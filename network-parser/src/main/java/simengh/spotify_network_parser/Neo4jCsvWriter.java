@@ -0,0 +1,302 @@
+package simengh.spotify_network_parser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Writes a directory of CSV files for the offline importer, `neo4j-admin database import`:
+//
+//   nodes.header.csv            id:ID,uri, then degree:int,strength:long,occurrences:int if
+//                               node statistics are given
+//   nodes-NN.csv[.gz]           one Track per line, the id being the dense node id
+//   relationships.header.csv    :START_ID,:END_ID,weight:int
+//   relationships-NN.csv[.gz]   one CO_OCCURS_WITH per line
+//
+// giving the same Track {id, uri} nodes and weighted relationships as EdgeListGeneratorNeo4j.
+// Lines are formatted into large buffers on the calling thread; full buffers go round-robin to
+// the part files, each of which has its own thread, so compression and disk writes run in
+// parallel. The importer reads all parts of a group since they share one header file.
+// With nodesOnClose the node files are written after the relationship files, so statistics
+// gathered while the edges are written can still go into them.
+class Neo4jCsvWriter implements GraphWriter {
+    private static final int BUFFER_SIZE = 4 << 20;
+
+    static final String NODE_HEADER = "id:ID,uri\n";
+    static final String NODE_STATISTICS_HEADER = "id:ID,uri,degree:int,strength:long,occurrences:int\n";
+    static final String RELATIONSHIP_HEADER = ":START_ID,:END_ID,weight:int\n";
+
+    private final Path outputDir;
+    private final boolean gzip;
+    private final int partCount;
+    private final boolean nodesOnClose;
+    private final BlockingQueue<byte[]> freeBuffers;
+    private volatile IOException writeError;
+
+    private Part[] parts;
+    private int nextPart;
+    private byte[] buffer;
+    private int length;
+    // Nodes still to be written at close, with their statistics if they were given
+    private NodeDictionary pendingNodes;
+    private GraphStatistics pendingStatistics;
+
+    // One output file with its own writer thread
+    private class Part {
+        final OutputStream out;
+        final ExecutorService thread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "csv-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Part(Path path) throws IOException {
+            OutputStream stream = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16);
+            if (gzip) {
+                stream = new GZIPOutputStream(stream, 1 << 16) {
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);
+                    }
+                };
+            }
+            out = stream;
+        }
+
+        void write(byte[] bytes, int count) {
+            thread.execute(() -> {
+                try {
+                    if (writeError == null) {
+                        out.write(bytes, 0, count);
+                    }
+                } catch (IOException e) {
+                    writeError = e;
+                } finally {
+                    freeBuffers.add(bytes);
+                }
+            });
+        }
+
+        void close() throws IOException {
+            thread.shutdown();
+            try {
+                if (!thread.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    throw new IOException("CSV writer thread did not finish");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing CSV files");
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    Neo4jCsvWriter(String outputDir, int partCount, boolean gzip) throws IOException {
+        this(outputDir, partCount, gzip, false);
+    }
+
+    Neo4jCsvWriter(String outputDir, int partCount, boolean gzip, boolean nodesOnClose) throws IOException {
+        this.nodesOnClose = nodesOnClose;
+        this.outputDir = Paths.get(outputDir).toAbsolutePath();
+        this.partCount = partCount;
+        this.gzip = gzip;
+        Files.createDirectories(this.outputDir);
+        // Parts left by an earlier export would be picked up by the import command's patterns
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(this.outputDir, "{nodes,relationships}-*.csv*")) {
+            for (Path path : stale) {
+                Files.delete(path);
+            }
+        }
+        Files.write(this.outputDir.resolve("nodes.header.csv"), NODE_HEADER.getBytes(StandardCharsets.UTF_8));
+        Files.write(this.outputDir.resolve("relationships.header.csv"),
+                RELATIONSHIP_HEADER.getBytes(StandardCharsets.UTF_8));
+
+        // Two buffers per part keep every part busy while the next buffer is filled
+        freeBuffers = new ArrayBlockingQueue<>(2 * partCount + 1);
+        for (int i = 0; i < 2 * partCount + 1; i++) {
+            freeBuffers.add(new byte[BUFFER_SIZE]);
+        }
+        buffer = takeBuffer();
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes) throws IOException {
+        writeNodes(nodes, null);
+    }
+
+    @Override
+    public void writeNodes(NodeDictionary nodes, GraphStatistics statistics) throws IOException {
+        if (statistics != null) {
+            Files.write(outputDir.resolve("nodes.header.csv"), NODE_STATISTICS_HEADER.getBytes(StandardCharsets.UTF_8));
+        }
+        if (nodesOnClose) {
+            pendingNodes = nodes;
+            pendingStatistics = statistics;
+        } else {
+            putNodes(nodes, statistics);
+        }
+        openParts("relationships");
+    }
+
+    @Override
+    public boolean writesNodesOnClose() {
+        return nodesOnClose;
+    }
+
+    private void putNodes(NodeDictionary nodes, GraphStatistics statistics) throws IOException {
+        openParts("nodes");
+        int nodeCount = nodes.size();
+        for (int id = 0; id < nodeCount; id++) {
+            byte[] uri = quoteCSV(nodes.uriOf(id)).getBytes(StandardCharsets.UTF_8);
+            reserve(uri.length + (statistics != null ? 56 : 12));
+            putNumber(id);
+            buffer[length++] = ',';
+            System.arraycopy(uri, 0, buffer, length, uri.length);
+            length += uri.length;
+            if (statistics != null) {
+                buffer[length++] = ',';
+                putNumber(statistics.degrees[id]);
+                buffer[length++] = ',';
+                putNumber(statistics.strengths[id]);
+                buffer[length++] = ',';
+                putNumber(statistics.occurrences[id]);
+            }
+            buffer[length++] = '\n';
+        }
+        closeParts();
+    }
+
+    @Override
+    public void writeEdge(int source, int target, int weight) throws IOException {
+        reserve(33);
+        putNumber(source);
+        buffer[length++] = ',';
+        putNumber(target);
+        buffer[length++] = ',';
+        putNumber(weight);
+        buffer[length++] = '\n';
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (parts == null) {
+            openParts("relationships");
+        }
+        closeParts();
+        if (pendingNodes != null) {
+            putNodes(pendingNodes, pendingStatistics);
+            pendingNodes = null;
+        }
+        freeBuffers.clear();
+    }
+
+    // The offline import command for the files written to outputDir
+    static String importCommand(String outputDir, boolean gzip) {
+        Path dir = Paths.get(outputDir).toAbsolutePath();
+        String suffix = gzip ? ".csv.gz" : ".csv";
+        return "neo4j-admin database import full --id-type=INTEGER"
+                + " --nodes=Track=" + dir.resolve("nodes.header.csv") + "," + dir.resolve("nodes-.*" + suffix)
+                + " --relationships=CO_OCCURS_WITH=" + dir.resolve("relationships.header.csv") + ","
+                + dir.resolve("relationships-.*" + suffix)
+                + " <database>";
+    }
+
+    private void openParts(String group) throws IOException {
+        parts = new Part[partCount];
+        for (int i = 0; i < partCount; i++) {
+            parts[i] = new Part(outputDir.resolve(String.format("%s-%02d%s", group, i, gzip ? ".csv.gz" : ".csv")));
+        }
+        nextPart = 0;
+    }
+
+    private void closeParts() throws IOException {
+        handOff();
+        IOException closeError = null;
+        for (Part part : parts) {
+            try {
+                part.close();
+            } catch (IOException e) {
+                if (closeError == null) {
+                    closeError = e;
+                }
+            }
+        }
+        parts = null;
+        if (writeError != null) {
+            throw writeError;
+        }
+        if (closeError != null) {
+            throw closeError;
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.length - length < bytes) {
+            handOff();
+            if (bytes > buffer.length) {
+                // Only a pathologically long URI gets here
+                buffer = new byte[bytes];
+            }
+        }
+    }
+
+    // Passes the filled part of the buffer to the next part file
+    private void handOff() throws IOException {
+        if (writeError != null) {
+            throw writeError;
+        }
+        if (length == 0) {
+            return;
+        }
+        parts[nextPart].write(buffer, length);
+        nextPart = (nextPart + 1) % parts.length;
+        buffer = takeBuffer();
+        length = 0;
+    }
+
+    private byte[] takeBuffer() throws IOException {
+        try {
+            return freeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing CSV files");
+        }
+    }
+
+    // Formats a non-negative number as ASCII digits without allocating
+    private void putNumber(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = length + digits;
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    // Quotes a CSV field if it contains a delimiter, quote or line break
+    static String quoteCSV(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + s.replace("\"", "\"\"") + '"';
+            }
+        }
+        return s;
+    }
+}
@@ -0,0 +1,168 @@
+package simengh.spotify_network_parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Maps each node URI to a dense int id, assigned in order of first appearance, and back.
+// The dictionary is shared by all parser threads: lookups are split over independently
+// locked segments so that threads rarely contend, and only the first sighting of a URI
+// takes the global lock to assign its id.
+class NodeDictionary {
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1 << 8;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    // Guarded by this; the array reference is volatile so readers always see a complete copy
+    private volatile String[] uris = new String[INITIAL_CAPACITY];
+    private int size;
+
+    NodeDictionary() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Returns the id of uri, assigning the next free id if it has not been seen before
+    int idOf(String uri) {
+        int hash = mix(uri.hashCode());
+        Segment segment = segments[hash >>> (32 - SEGMENT_BITS)];
+        synchronized (segment) {
+            int slot = hash & segment.mask;
+            String existing;
+            while ((existing = segment.keys[slot]) != null) {
+                if (existing.equals(uri)) {
+                    return segment.ids[slot];
+                }
+                slot = (slot + 1) & segment.mask;
+            }
+            int id = append(uri);
+            segment.insert(slot, uri, id);
+            return id;
+        }
+    }
+
+    // Returns the id of uri, or -1 if it has not been seen, without assigning one
+    int find(String uri) {
+        int hash = mix(uri.hashCode());
+        Segment segment = segments[hash >>> (32 - SEGMENT_BITS)];
+        synchronized (segment) {
+            int slot = hash & segment.mask;
+            String existing;
+            while ((existing = segment.keys[slot]) != null) {
+                if (existing.equals(uri)) {
+                    return segment.ids[slot];
+                }
+                slot = (slot + 1) & segment.mask;
+            }
+            return -1;
+        }
+    }
+
+    // Returns the id of the URI stored as UTF-8 in buffer[start, end). ASCII URIs, which is
+    // all of the MPD, are hashed and compared as bytes so a String is only created the first
+    // time a URI is seen; anything else is decoded and looked up as a String.
+    int idOf(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < 0) {
+                return idOf(decode(buffer, start, end, StandardCharsets.UTF_8));
+            }
+            // Same recurrence as String.hashCode, so both lookups land in the same slot
+            hash = 31 * hash + b;
+        }
+        hash = mix(hash);
+        Segment segment = segments[hash >>> (32 - SEGMENT_BITS)];
+        synchronized (segment) {
+            int slot = hash & segment.mask;
+            String existing;
+            while ((existing = segment.keys[slot]) != null) {
+                if (asciiEquals(existing, buffer, start, end)) {
+                    return segment.ids[slot];
+                }
+                slot = (slot + 1) & segment.mask;
+            }
+            String uri = decode(buffer, start, end, StandardCharsets.US_ASCII);
+            int id = append(uri);
+            segment.insert(slot, uri, id);
+            return id;
+        }
+    }
+
+    // Safe for any id returned to the calling thread, or for every id once parsing is done
+    String uriOf(int id) {
+        return uris[id];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private synchronized int append(String uri) {
+        if (size == uris.length) {
+            uris = Arrays.copyOf(uris, size << 1);
+        }
+        uris[size] = uri;
+        return size++;
+    }
+
+    private static boolean asciiEquals(String s, ByteBuffer buffer, int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end, Charset charset) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, charset);
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Segment {
+        String[] keys = new String[INITIAL_SEGMENT_CAPACITY];
+        int[] ids = new int[INITIAL_SEGMENT_CAPACITY];
+        int mask = INITIAL_SEGMENT_CAPACITY - 1;
+        int size;
+
+        void insert(int slot, String uri, int id) {
+            keys[slot] = uri;
+            ids[slot] = id;
+            if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            String[] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new String[oldKeys.length << 1];
+            ids = new int[oldKeys.length << 1];
+            mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = mix(oldKeys[i].hashCode()) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package simengh.spotify_network_parser;
+
+import java.util.Arrays;
+
+// Playlist occurrences of each node id seen by one worker, in an array that grows with the
+// largest id; not thread-safe
+class OccurrenceCounter {
+    int[] counts = new int[1024];
+
+    void add(int node) {
+        if (node >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(node + 1, counts.length << 1));
+        }
+        counts[node]++;
+    }
+
+    // Adds occurrence counts made elsewhere, indexed by node id
+    void addAll(int[] other) {
+        if (other.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.length);
+        }
+        for (int v = 0; v < other.length; v++) {
+            counts[v] += other[v];
+        }
+    }
+}
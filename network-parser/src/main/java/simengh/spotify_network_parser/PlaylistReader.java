@@ -0,0 +1,178 @@
+package simengh.spotify_network_parser;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import me.tongfei.progressbar.ProgressBar;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Streams the playlists of an MPD slice file at the token level. Only the pid and the
+// requested per-track fields (e.g. "track_uri") are read, interned straight into a
+// NodeDictionary per field and written into a Playlist buffer that is reused for every
+// playlist; everything else is skipped without building a JSON tree.
+// A reader is not thread-safe, so each worker thread uses its own.
+class PlaylistReader {
+    private static final int INITIAL_TRACK_CAPACITY = 256;
+
+    protected final String[] fields;
+    protected final NodeDictionary[] dictionaries;
+    protected final Playlist playlist;
+
+    interface Handler {
+        void playlist(Playlist playlist) throws IOException;
+    }
+
+    // The current playlist. ids[f][i] is the id of field f of track i in dictionaries[f];
+    // only the first trackCount entries of each row are valid, and only until the next playlist.
+    static class Playlist {
+        int pid;
+        int trackCount;
+        int[][] ids;
+
+        Playlist(int fieldCount) {
+            ids = new int[fieldCount][INITIAL_TRACK_CAPACITY];
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > ids[0].length) {
+                int newCapacity = Math.max(capacity, ids[0].length << 1);
+                for (int f = 0; f < ids.length; f++) {
+                    ids[f] = Arrays.copyOf(ids[f], newCapacity);
+                }
+            }
+        }
+    }
+
+    PlaylistReader(String[] fields, NodeDictionary[] dictionaries) {
+        if (fields.length != dictionaries.length || fields.length == 0) {
+            throw new IllegalArgumentException("Need one dictionary per field");
+        }
+        this.fields = fields;
+        this.dictionaries = dictionaries;
+        this.playlist = new Playlist(fields.length);
+    }
+
+    PlaylistReader(String field, NodeDictionary dictionary) {
+        this(new String[]{field}, new NodeDictionary[]{dictionary});
+    }
+
+    // Reads every playlist in inputFile and passes it to handler. If progress is given it is
+    // stepped once per playlist, and sized from "info" when it does not have a maximum yet.
+    void read(String inputFile, ProgressBar progress, Handler handler) throws IOException {
+        try (JsonReader reader = new JsonReader(new FileReader(inputFile))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("playlists".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readPlaylist(reader);
+                        handler.playlist(playlist);
+                        if (progress != null) {
+                            progress.step();
+                        }
+                    }
+                    reader.endArray();
+                } else if ("info".equals(name) && progress != null && progress.getMax() < 0) {
+                    int count = readSliceCount(reader);
+                    if (count > 0) {
+                        progress.maxHint(count);
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+    }
+
+    private void readPlaylist(JsonReader reader) throws IOException {
+        playlist.pid = -1;
+        playlist.trackCount = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("pid".equals(name)) {
+                playlist.pid = reader.nextInt();
+            } else if ("tracks".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readTrack(reader);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readTrack(JsonReader reader) throws IOException {
+        int track = playlist.trackCount;
+        playlist.ensureCapacity(track + 1);
+        int found = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = fieldIndex(reader.nextName());
+            if (field >= 0 && reader.peek() == JsonToken.STRING) {
+                playlist.ids[field][track] = dictionaries[field].idOf(reader.nextString());
+                found++;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (found != fields.length) {
+            throw new IOException("Track is missing one of " + Arrays.toString(fields) + " at " + reader.getPath());
+        }
+        playlist.trackCount++;
+    }
+
+    protected int fieldIndex(String name) {
+        for (int f = 0; f < fields.length; f++) {
+            if (fields[f].equals(name)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    private static int readSliceCount(JsonReader reader) throws IOException {
+        int count = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("slice".equals(reader.nextName())) {
+                count = playlistCountFromSlice(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    // Slice files are named mpd.slice.<first pid>-<last pid>.json; returns -1 for other names
+    static int playlistCountFromFileName(String inputFile) {
+        String fileName = Paths.get(inputFile).getFileName().toString();
+        if (!fileName.startsWith("mpd.slice.") || !fileName.endsWith(".json")) {
+            return -1;
+        }
+        return playlistCountFromSlice(fileName.substring("mpd.slice.".length(), fileName.length() - ".json".length()));
+    }
+
+    // Parses a "<first>-<last>" pid range as found in info.slice; returns -1 if malformed
+    static int playlistCountFromSlice(String slice) {
+        String[] range = slice.split("-");
+        if (range.length != 2) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(range[1]) - Integer.parseInt(range[0]) + 1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package simengh.spotify_network_parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.cli.*;
+
+// Read side of the personalized PageRank index written by PprIndexBuilder. The file is
+// little-endian with 8-byte aligned sections, like the binary graph format:
+//
+//   offset  size  field
+//        0     8  magic "SPPRIDX\0"
+//        8     4  int32 format version (1)
+//       12     4  int32 top N per node
+//       16     8  int64 n, number of nodes
+//       24     8  int64 e, number of entries
+//       32     8  int64 file offset of uri_offsets, int64[n + 1]
+//       40     8  int64 file offset of uri_bytes, the UTF-8 URIs back to back
+//       48     8  int64 file offset of entries, e records of (int32 node, float32 score)
+//       56     8  int64 file offset of indptr, int64[n + 1]
+//       64     8  float64 alpha
+//       72     8  float64 epsilon
+//       80    48  reserved, zero
+//
+// The top nodes of node v are entries[indptr[v]:indptr[v + 1]], best first. Entries and
+// indptr stay memory-mapped, so opening an index only reads the URIs, and a lookup touches
+// one row.
+public class PprIndex implements Closeable {
+    static final byte[] MAGIC = {'S', 'P', 'P', 'R', 'I', 'D', 'X', 0};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+
+    private static final int DEFAULT_TOP_N = 10;
+    // Entries per mapped chunk, so that indexes over 2 GB can be mapped
+    private static final int CHUNK_BITS = 27;
+
+    final NodeDictionary nodes;
+    final int topN;
+    final double alpha;
+    final double epsilon;
+    private final FileChannel channel;
+    private final LongBuffer indptr;
+    private final MappedByteBuffer[] entryChunks;
+    private final ThreadLocal<Merge> merges;
+
+    // Per-thread scores of the nodes reached from a query's seeds, cleared through touched,
+    // and a buffer for one seed's row
+    private class Merge {
+        final float[] scores = new float[nodes.size()];
+        final int[] touched = new int[nodes.size()];
+        int touchedCount;
+        final int[] rowIds = new int[topN];
+        final float[] rowScores = new float[topN];
+    }
+
+    private PprIndex(FileChannel channel, NodeDictionary nodes, int topN, double alpha, double epsilon,
+                     LongBuffer indptr, MappedByteBuffer[] entryChunks) {
+        this.channel = channel;
+        this.nodes = nodes;
+        this.topN = topN;
+        this.alpha = alpha;
+        this.epsilon = epsilon;
+        this.indptr = indptr;
+        this.entryChunks = entryChunks;
+        merges = ThreadLocal.withInitial(Merge::new);
+    }
+
+    static PprIndex open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(0, magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a PageRank index file: " + path);
+            }
+            if (header.getInt(8) != VERSION) {
+                throw new IOException("Unsupported PageRank index version " + header.getInt(8) + " in " + path);
+            }
+            int topN = header.getInt(12);
+            int nodeCount = Math.toIntExact(header.getLong(16));
+            long entryCount = header.getLong(24);
+            long uriOffsetsAt = header.getLong(32);
+            long uriBytesAt = header.getLong(40);
+            long entriesAt = header.getLong(48);
+            long indptrAt = header.getLong(56);
+
+            MappedByteBuffer uriOffsetBuffer = channel.map(FileChannel.MapMode.READ_ONLY, uriOffsetsAt,
+                    8L * (nodeCount + 1));
+            LongBuffer uriOffsets = uriOffsetBuffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            MappedByteBuffer uriBytes = channel.map(FileChannel.MapMode.READ_ONLY, uriBytesAt,
+                    uriOffsets.get(nodeCount));
+            NodeDictionary nodes = new NodeDictionary();
+            for (int v = 0; v < nodeCount; v++) {
+                byte[] bytes = new byte[(int) (uriOffsets.get(v + 1) - uriOffsets.get(v))];
+                uriBytes.get((int) uriOffsets.get(v), bytes);
+                nodes.idOf(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            LongBuffer indptr = channel.map(FileChannel.MapMode.READ_ONLY, indptrAt, 8L * (nodeCount + 1))
+                    .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            List<MappedByteBuffer> chunks = new ArrayList<>();
+            for (long first = 0; first < entryCount; first += 1L << CHUNK_BITS) {
+                long count = Math.min(1L << CHUNK_BITS, entryCount - first);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, entriesAt + 8 * first, 8 * count);
+                chunk.order(ByteOrder.LITTLE_ENDIAN);
+                chunks.add(chunk);
+            }
+            return new PprIndex(channel, nodes, topN, header.getDouble(64), header.getDouble(72), indptr,
+                    chunks.toArray(new MappedByteBuffer[0]));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int nodeCount() {
+        return nodes.size();
+    }
+
+    // Copies up to ids.length of node's top nodes, best first; returns how many were copied
+    int neighbors(int node, int[] ids, float[] scores) {
+        long start = indptr.get(node);
+        int count = (int) Math.min(ids.length, indptr.get(node + 1) - start);
+        for (int i = 0; i < count; i++) {
+            long entry = start + i;
+            MappedByteBuffer chunk = entryChunks[(int) (entry >>> CHUNK_BITS)];
+            int position = (int) ((entry & ((1L << CHUNK_BITS) - 1)) << 3);
+            ids[i] = chunk.getInt(position);
+            scores[i] = chunk.getFloat(position + 4);
+        }
+        return count;
+    }
+
+    // Recommends for a set of seed nodes: each node's score is the sum of its scores in the
+    // seeds' rows, seeds themselves excluded. Writes up to out.length nodes, best first, and
+    // returns how many were found.
+    int recommend(int[] seeds, int seedCount, int[] out, float[] outScores) {
+        Merge merge = merges.get();
+        int[] ids = merge.rowIds;
+        float[] scores = merge.rowScores;
+        for (int s = 0; s < seedCount; s++) {
+            int found = neighbors(seeds[s], ids, scores);
+            for (int i = 0; i < found; i++) {
+                if (merge.scores[ids[i]] == 0) {
+                    merge.touched[merge.touchedCount++] = ids[i];
+                }
+                merge.scores[ids[i]] += scores[i];
+            }
+        }
+        for (int s = 0; s < seedCount; s++) {
+            merge.scores[seeds[s]] = -1;
+        }
+
+        // Insertion into the sorted top list; rows are short, so this beats a heap
+        int count = 0;
+        for (int t = 0; t < merge.touchedCount; t++) {
+            int v = merge.touched[t];
+            float score = merge.scores[v];
+            if (score <= 0) {
+                continue;
+            }
+            int pos = count;
+            while (pos > 0 && (score > outScores[pos - 1] || (score == outScores[pos - 1] && v < out[pos - 1]))) {
+                pos--;
+            }
+            if (pos < out.length) {
+                int moved = Math.min(count, out.length - 1) - pos;
+                System.arraycopy(out, pos, out, pos + 1, moved);
+                System.arraycopy(outScores, pos, outScores, pos + 1, moved);
+                out[pos] = v;
+                outScores[pos] = score;
+                count = Math.min(count + 1, out.length);
+            }
+        }
+
+        for (int t = 0; t < merge.touchedCount; t++) {
+            merge.scores[merge.touched[t]] = 0;
+        }
+        for (int s = 0; s < seedCount; s++) {
+            merge.scores[seeds[s]] = 0;
+        }
+        merge.touchedCount = 0;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("x")
+                .longOpt("index")
+                .desc("Index written by PprIndexBuilder")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("u")
+                .longOpt("uri")
+                .desc("Comma-separated seed track URIs, such as the tracks of a playlist")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("k")
+                .longOpt("top-n")
+                .desc("Number of tracks to recommend (default " + DEFAULT_TOP_N + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("repeat")
+                .desc("Repeat the lookup this many times and report the mean latency (default 1)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("PprIndex", options);
+                System.exit(0);
+            }
+            if (!cmd.hasOption("index") || !cmd.hasOption("uri")) {
+                System.err.println("Error: --index and --uri are required");
+                formatter.printHelp("PprIndex", options);
+                System.exit(1);
+            }
+
+            int topN = Integer.parseInt(cmd.getOptionValue("top-n", String.valueOf(DEFAULT_TOP_N)));
+            int repeat = Integer.parseInt(cmd.getOptionValue("repeat", "1"));
+            if (topN < 1 || repeat < 1) {
+                System.err.println("Error: top-n and repeat must be at least 1");
+                System.exit(1);
+            }
+
+            long loadStart = System.nanoTime();
+            try (PprIndex index = open(cmd.getOptionValue("index"))) {
+                System.out.println("Opened index of " + index.nodeCount() + " nodes (top " + index.topN
+                        + ", alpha " + index.alpha + ") in " + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+
+                String[] uris = cmd.getOptionValue("uri").split(",");
+                int[] seeds = new int[uris.length];
+                int seedCount = 0;
+                for (String uri : uris) {
+                    int id = index.nodes.find(uri.trim());
+                    if (id < 0) {
+                        System.err.println("Warning: Not in the index: " + uri.trim());
+                    } else {
+                        seeds[seedCount++] = id;
+                    }
+                }
+                if (seedCount == 0) {
+                    System.err.println("Error: None of the seed tracks is in the index");
+                    System.exit(1);
+                }
+
+                int[] recommended = new int[topN];
+                float[] scores = new float[topN];
+                int found = 0;
+                long start = System.nanoTime();
+                for (int r = 0; r < repeat; r++) {
+                    found = index.recommend(seeds, seedCount, recommended, scores);
+                }
+                long micros = (System.nanoTime() - start) / 1000 / repeat;
+                for (int i = 0; i < found; i++) {
+                    System.out.println(String.format("%d. %s\t%.6f", i + 1, index.nodes.uriOf(recommended[i]), scores[i]));
+                }
+                System.out.println("Lookup took " + micros + " us");
+            }
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("PprIndex", options);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.apache.commons.cli.*;
+import me.tongfei.progressbar.*;
+
+// Precomputes personalized PageRank for every node of a graph written by GraphMLGenerator and
+// stores the topN highest-scoring other nodes of each as a PprIndex. The walk is the RESTART
+// walk of RandomWalkRecommender: follow an edge with probability proportional to its weight,
+// or jump back to the source with probability alpha.
+// Scores come from the forward push of Andersen, Chung and Lang: each source starts with
+// residual 1; a node whose residual r is at least epsilon times its degree keeps alpha * r as
+// score and spreads the rest over its edges in proportion to their weights. Since the walk
+// follows weights, the residual left behind puts every estimate below the exact PageRank by
+// at most epsilon times the node's strength (the sum of its edge weights), not its degree.
+// The work per source is bounded by 1 / (alpha * epsilon) edge visits whatever the graph size. Sources are pushed in parallel
+// in blocks of node ids, and each block's rows are appended to the index in order.
+public class PprIndexBuilder {
+    private static final int DEFAULT_TOP_N = 50;
+    private static final double DEFAULT_ALPHA = 0.15;
+    private static final double DEFAULT_EPSILON = 1e-5;
+    private static final int BLOCK_SIZE = 4096;
+
+    private final CsrGraph graph;
+    private final double alpha;
+    private final double epsilon;
+    private final int topN;
+    private final double[] strengths;
+    private final ThreadLocal<Push> pushes;
+
+    // Per-thread state of a push from one source; arrays are cleared through touched
+    private class Push {
+        final double[] score = new double[graph.nodeCount()];
+        final double[] residual = new double[graph.nodeCount()];
+        final boolean[] queued = new boolean[graph.nodeCount()];
+        final int[] queue = new int[graph.nodeCount()];
+        final int[] touched = new int[graph.nodeCount()];
+        int touchedCount;
+
+        // Pushes from source and writes its top nodes other than itself to ids and scores,
+        // best first; returns how many there are
+        int run(int source, int[] ids, float[] scores) {
+            int n = graph.nodeCount();
+            touch(source);
+            residual[source] = 1;
+            int head = 0;
+            int size = 1;
+            queue[0] = source;
+            queued[source] = true;
+            while (size > 0) {
+                int u = queue[head];
+                head = head + 1 == n ? 0 : head + 1;
+                size--;
+                queued[u] = false;
+
+                double r = residual[u];
+                int start = graph.offsets[u];
+                int end = graph.offsets[u + 1];
+                score[u] += alpha * r;
+                residual[u] = 0;
+                if (end == start) {
+                    continue;
+                }
+                double spread = (1 - alpha) * r / strengths[u];
+                for (int i = start; i < end; i++) {
+                    int v = graph.neighbors[i];
+                    touch(v);
+                    residual[v] += spread * graph.weights[i];
+                    if (!queued[v] && residual[v] >= epsilon * graph.degree(v)) {
+                        int tail = head + size;
+                        queue[tail >= n ? tail - n : tail] = v;
+                        size++;
+                        queued[v] = true;
+                    }
+                }
+            }
+
+            // Top nodes other than the source, kept in a min-heap on (score, -id)
+            int heapSize = 0;
+            for (int t = 0; t < touchedCount; t++) {
+                int v = touched[t];
+                float s = (float) score[v];
+                if (v == source || s <= 0) {
+                    continue;
+                }
+                if (heapSize < topN) {
+                    ids[heapSize] = v;
+                    scores[heapSize] = s;
+                    siftUp(ids, scores, heapSize++);
+                } else if (worse(ids[0], scores[0], v, s)) {
+                    ids[0] = v;
+                    scores[0] = s;
+                    siftDown(ids, scores, 0, heapSize);
+                }
+            }
+            // Pop the heap from the back so the row ends up best first
+            for (int end = heapSize - 1; end > 0; end--) {
+                swap(ids, scores, 0, end);
+                siftDown(ids, scores, 0, end);
+            }
+            for (int t = 0; t < touchedCount; t++) {
+                score[touched[t]] = 0;
+                residual[touched[t]] = 0;
+            }
+            touchedCount = 0;
+            return heapSize;
+        }
+
+        private void touch(int v) {
+            if (score[v] == 0 && residual[v] == 0) {
+                touched[touchedCount++] = v;
+            }
+        }
+    }
+
+    PprIndexBuilder(CsrGraph graph, double alpha, double epsilon, int topN) {
+        this.graph = graph;
+        this.alpha = alpha;
+        this.epsilon = epsilon;
+        this.topN = topN;
+        strengths = new double[graph.nodeCount()];
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            long strength = 0;
+            for (int i = graph.offsets[v]; i < graph.offsets[v + 1]; i++) {
+                strength += graph.weights[i];
+            }
+            strengths[v] = strength;
+        }
+        pushes = ThreadLocal.withInitial(Push::new);
+    }
+
+    // Computes every row and writes the index; returns the number of entries
+    long build(Path path, ForkJoinPool pool) throws IOException {
+        int nodeCount = graph.nodeCount();
+        byte[][] uriBytes = new byte[nodeCount][];
+        long uriByteCount = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            uriBytes[v] = graph.uris[v].getBytes(StandardCharsets.UTF_8);
+            uriByteCount += uriBytes[v].length;
+        }
+        long uriOffsetsAt = PprIndex.HEADER_SIZE;
+        long uriBytesAt = uriOffsetsAt + 8L * (nodeCount + 1);
+        long entriesAt = align(uriBytesAt + uriByteCount);
+        long[] indptr = new long[nodeCount + 1];
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             ProgressBar progress = new ProgressBarBuilder()
+                     .setTaskName("Pushing")
+                     .setInitialMax(nodeCount)
+                     .setUpdateIntervalMillis(1000)
+                     .setStyle(ProgressBarStyle.ASCII)
+                     .build()) {
+            BinaryGraphWriter.ChannelOutput out = new BinaryGraphWriter.ChannelOutput(channel);
+            // The header is written last, once the section offsets are known
+            out.pad(PprIndex.HEADER_SIZE);
+            long uriOffset = 0;
+            out.putLong(uriOffset);
+            for (byte[] bytes : uriBytes) {
+                uriOffset += bytes.length;
+                out.putLong(uriOffset);
+            }
+            for (byte[] bytes : uriBytes) {
+                out.put(bytes);
+            }
+            out.pad(entriesAt - (uriBytesAt + uriByteCount));
+
+            int[][] rowIds = new int[BLOCK_SIZE][topN];
+            float[][] rowScores = new float[BLOCK_SIZE][topN];
+            int[] rowCounts = new int[BLOCK_SIZE];
+            long entries = 0;
+            for (int blockStart = 0; blockStart < nodeCount; blockStart += BLOCK_SIZE) {
+                int first = blockStart;
+                int blockSize = Math.min(BLOCK_SIZE, nodeCount - blockStart);
+                run(pool, () -> IntStream.range(0, blockSize).parallel()
+                        .forEach(i -> rowCounts[i] = pushes.get().run(first + i, rowIds[i], rowScores[i])));
+                for (int i = 0; i < blockSize; i++) {
+                    for (int e = 0; e < rowCounts[i]; e++) {
+                        out.putInt(rowIds[i][e]);
+                        out.putInt(Float.floatToRawIntBits(rowScores[i][e]));
+                    }
+                    entries += rowCounts[i];
+                    indptr[first + i + 1] = entries;
+                }
+                progress.stepBy(blockSize);
+            }
+            long indptrAt = entriesAt + 8 * entries;
+            for (long offset : indptr) {
+                out.putLong(offset);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(PprIndex.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(PprIndex.MAGIC);
+            header.putInt(PprIndex.VERSION);
+            header.putInt(topN);
+            header.putLong(nodeCount);
+            header.putLong(entries);
+            header.putLong(uriOffsetsAt);
+            header.putLong(uriBytesAt);
+            header.putLong(entriesAt);
+            header.putLong(indptrAt);
+            header.putDouble(alpha);
+            header.putDouble(epsilon);
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            return entries;
+        }
+    }
+
+    private static void run(ForkJoinPool pool, Runnable task) throws IOException {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing PageRank", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compute PageRank", e.getCause());
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    // Whether (id1, score1) ranks below (id2, score2): lower score, or equal score and higher id
+    private static boolean worse(int id1, float score1, int id2, float score2) {
+        return score1 < score2 || (score1 == score2 && id1 > id2);
+    }
+
+    private static void siftUp(int[] ids, float[] scores, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(ids[i], scores[i], ids[parent], scores[parent])) {
+                break;
+            }
+            swap(ids, scores, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] ids, float[] scores, int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(ids[child + 1], scores[child + 1], ids[child], scores[child])) {
+                child++;
+            }
+            if (!worse(ids[child], scores[child], ids[i], scores[i])) {
+                break;
+            }
+            swap(ids, scores, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(int[] ids, float[] scores, int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("g")
+                .longOpt("graph")
+                .desc("Graph written by GraphMLGenerator, in GRAPHML or BIN format")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .desc("Index file to write")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("n")
+                .longOpt("top-n")
+                .desc("Nodes kept per source (default " + DEFAULT_TOP_N + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("a")
+                .longOpt("alpha")
+                .desc("Probability of jumping back to the source, the restart probability (default "
+                        + DEFAULT_ALPHA + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("e")
+                .longOpt("epsilon")
+                .desc("Residual per unit of degree below which a node is not pushed; smaller is more accurate "
+                        + "and slower (default " + DEFAULT_EPSILON + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of worker threads (default: all processors)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("PprIndexBuilder", options);
+                System.exit(0);
+            }
+            if (!cmd.hasOption("graph") || !cmd.hasOption("output")) {
+                System.err.println("Error: --graph and --output are required");
+                formatter.printHelp("PprIndexBuilder", options);
+                System.exit(1);
+            }
+
+            String graphPath = cmd.getOptionValue("graph");
+            String outputPath = cmd.getOptionValue("output");
+            int topN = Integer.parseInt(cmd.getOptionValue("top-n", String.valueOf(DEFAULT_TOP_N)));
+            double alpha = Double.parseDouble(cmd.getOptionValue("alpha", String.valueOf(DEFAULT_ALPHA)));
+            double epsilon = Double.parseDouble(cmd.getOptionValue("epsilon", String.valueOf(DEFAULT_EPSILON)));
+            int threads = Integer.parseInt(cmd.getOptionValue("threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+            if (topN < 1 || threads < 1) {
+                System.err.println("Error: top-n and threads must be at least 1");
+                System.exit(1);
+            }
+            if (alpha <= 0 || alpha >= 1 || epsilon <= 0) {
+                System.err.println("Error: alpha must be between 0 and 1 and epsilon positive");
+                System.exit(1);
+            }
+
+            long loadStart = System.nanoTime();
+            CsrGraph graph = CsrGraph.read(graphPath);
+            System.out.println("Loaded " + graph.nodeCount() + " nodes and " + graph.edgeCount() + " edges in "
+                    + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+
+            Path output = Paths.get(outputPath).toAbsolutePath();
+            Files.createDirectories(output.getParent());
+            long start = System.nanoTime();
+            long entries;
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                entries = new PprIndexBuilder(graph, alpha, epsilon, topN).build(output, pool);
+            } finally {
+                pool.shutdown();
+            }
+            System.out.println(String.format("Wrote %d entries (%.1f per node) in %.1f s to %s", entries,
+                    (double) entries / Math.max(1, graph.nodeCount()), (System.nanoTime() - start) / 1e9, outputPath));
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("PprIndexBuilder", options);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.apache.commons.cli.*;
+
+// Random-walk track recommendations over a CsrGraph, following the recommenders of
+// final/network_analysis.ipynb: a walk of a fixed number of steps starts at a seed track,
+// every visit (the start included) is counted, and the most visited tracks are recommended.
+// Each CSR row gets an alias table (one probability and one alias position per
+// entry), so a weighted neighbor is drawn in O(1). Node2vec walks draw from the same tables and
+// accept the draw with probability bias / maxBias, which needs only a binary search in the
+// sorted row of the previous node. Walkers keep all per-walk state in preallocated arrays,
+// so walking allocates nothing.
+public class RandomWalkRecommender {
+    enum WalkMode {
+        // Step to a neighbor with probability proportional to edge weight
+        WEIGHTED,
+        // Like WEIGHTED, but jump back to the start with the restart probability at each step
+        RESTART,
+        // Second-order walk biased by the return parameter p and the in-out parameter q
+        NODE2VEC
+    }
+
+    static class WalkSettings {
+        final WalkMode mode;
+        final int steps;
+        final double restartProbability;
+        final double p;
+        final double q;
+
+        WalkSettings(WalkMode mode, int steps, double restartProbability, double p, double q) {
+            this.mode = mode;
+            this.steps = steps;
+            this.restartProbability = restartProbability;
+            this.p = p;
+            this.q = q;
+        }
+    }
+
+    // Default values, as in the notebooks
+    private static final WalkMode DEFAULT_WALK_MODE = WalkMode.WEIGHTED;
+    private static final int DEFAULT_STEPS = 5;
+    private static final int DEFAULT_TOP_N = 1;
+    private static final double DEFAULT_RESTART_PROBABILITY = 0.15;
+    private static final double DEFAULT_P = 1.0;
+    private static final double DEFAULT_Q = 1.0;
+    private static final long DEFAULT_SEED = 42;
+    private static final int DEFAULT_REPEAT = 1;
+
+    final CsrGraph graph;
+    // Alias method tables, parallel to graph.neighbors: the entry at position i is kept with
+    // probability aliasProbability[i], otherwise the entry at position alias[i] is taken
+    private final float[] aliasProbability;
+    private final int[] alias;
+
+    RandomWalkRecommender(CsrGraph graph) {
+        this.graph = graph;
+        int entryCount = graph.neighbors.length;
+        aliasProbability = new float[entryCount];
+        alias = new int[entryCount];
+
+        int maxDegree = 0;
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            maxDegree = Math.max(maxDegree, graph.degree(v));
+        }
+        double[] scaled = new double[maxDegree];
+        int[] small = new int[maxDegree];
+        int[] large = new int[maxDegree];
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            buildAliasTable(graph.offsets[v], graph.degree(v), scaled, small, large);
+        }
+    }
+
+    // Vose's alias method for one row
+    private void buildAliasTable(int start, int degree, double[] scaled, int[] small, int[] large) {
+        double total = 0;
+        for (int i = 0; i < degree; i++) {
+            total += graph.weights[start + i];
+        }
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < degree; i++) {
+            scaled[i] = graph.weights[start + i] * degree / total;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            aliasProbability[start + less] = (float) scaled[less];
+            alias[start + less] = start + more;
+            scaled[more] = scaled[more] + scaled[less] - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // Whatever is left is 1 up to rounding error
+        while (largeCount > 0) {
+            int i = large[--largeCount];
+            aliasProbability[start + i] = 1.0f;
+            alias[start + i] = start + i;
+        }
+        while (smallCount > 0) {
+            int i = small[--smallCount];
+            aliasProbability[start + i] = 1.0f;
+            alias[start + i] = start + i;
+        }
+    }
+
+    Walker newWalker(long seed) {
+        return new Walker(seed);
+    }
+
+    // Walk state for one thread; not thread-safe
+    class Walker {
+        private SplittableRandom random;
+        // Visit count of every node, and the nodes visited in the current walk in first-visit
+        // order; counts are reset through the list after each walk
+        private final int[] visits = new int[graph.nodeCount()];
+        private final int[] visited = new int[graph.nodeCount()];
+        private int visitedCount;
+        // A node is excluded when its mark equals the current walk's mark
+        private final int[] excludedMark = new int[graph.nodeCount()];
+        private int mark;
+        private int[] topCounts = new int[0];
+        private long stepCount;
+
+        Walker(long seed) {
+            random = new SplittableRandom(seed);
+        }
+
+        void setSeed(long seed) {
+            random = new SplittableRandom(seed);
+        }
+
+        int nextInt(int bound) {
+            return random.nextInt(bound);
+        }
+
+        // Total steps taken by this walker, for throughput measurements
+        long stepCount() {
+            return stepCount;
+        }
+
+        // Walks from start and writes up to out.length of the most visited nodes to out, most
+        // visited first and ties in first-visit order, skipping the first excludeCount nodes of
+        // exclude. Returns the number of nodes written.
+        int recommend(int start, WalkSettings settings, int[] exclude, int excludeCount, int[] out) {
+            walk(start, settings);
+            return mostVisited(exclude, excludeCount, out);
+        }
+
+        // Like recommend, but walks once from each of the first startCount nodes of starts and
+        // ranks the nodes by their visits over all walks
+        int recommend(int[] starts, int startCount, WalkSettings settings, int[] exclude, int excludeCount,
+                      int[] out) {
+            for (int i = 0; i < startCount; i++) {
+                walk(starts[i], settings);
+            }
+            return mostVisited(exclude, excludeCount, out);
+        }
+
+        private int mostVisited(int[] exclude, int excludeCount, int[] out) {
+            if (++mark == 0) {
+                Arrays.fill(excludedMark, 0);
+                mark = 1;
+            }
+            for (int i = 0; i < excludeCount; i++) {
+                excludedMark[exclude[i]] = mark;
+            }
+            if (topCounts.length < out.length) {
+                topCounts = new int[out.length];
+            }
+
+            int found = 0;
+            for (int i = 0; i < visitedCount; i++) {
+                int node = visited[i];
+                int count = visits[node];
+                visits[node] = 0;
+                if (excludedMark[node] == mark || (found == out.length && count <= topCounts[found - 1])) {
+                    continue;
+                }
+                int position = found < out.length ? found++ : found - 1;
+                while (position > 0 && topCounts[position - 1] < count) {
+                    topCounts[position] = topCounts[position - 1];
+                    out[position] = out[position - 1];
+                    position--;
+                }
+                topCounts[position] = count;
+                out[position] = node;
+            }
+            visitedCount = 0;
+            return found;
+        }
+
+        private void walk(int start, WalkSettings settings) {
+            double maxBias = Math.max(1.0, Math.max(1.0 / settings.p, 1.0 / settings.q));
+            visit(start);
+            int current = start;
+            int previous = -1;
+            for (int step = 0; step < settings.steps; step++) {
+                if (settings.mode == WalkMode.RESTART && random.nextDouble() < settings.restartProbability) {
+                    current = start;
+                    visit(current);
+                    stepCount++;
+                    continue;
+                }
+                if (graph.offsets[current] == graph.offsets[current + 1]) {
+                    // Stop at a node without neighbors
+                    break;
+                }
+                int next = settings.mode == WalkMode.NODE2VEC && previous >= 0
+                        ? sampleNode2Vec(current, previous, settings, maxBias)
+                        : sampleNeighbor(current);
+                previous = current;
+                current = next;
+                visit(current);
+                stepCount++;
+            }
+        }
+
+        // Walks from start without counting visits and writes the walk to path, start first;
+        // returns its length, which is below settings.steps + 1 only if the walk reached a
+        // node without neighbors. path must hold settings.steps + 1 nodes.
+        int walkPath(int start, WalkSettings settings, int[] path) {
+            double maxBias = Math.max(1.0, Math.max(1.0 / settings.p, 1.0 / settings.q));
+            int length = 0;
+            path[length++] = start;
+            int current = start;
+            int previous = -1;
+            for (int step = 0; step < settings.steps; step++) {
+                if (settings.mode == WalkMode.RESTART && random.nextDouble() < settings.restartProbability) {
+                    current = start;
+                    previous = -1;
+                } else if (graph.offsets[current] == graph.offsets[current + 1]) {
+                    break;
+                } else {
+                    int next = settings.mode == WalkMode.NODE2VEC && previous >= 0
+                            ? sampleNode2Vec(current, previous, settings, maxBias)
+                            : sampleNeighbor(current);
+                    previous = current;
+                    current = next;
+                }
+                path[length++] = current;
+                stepCount++;
+            }
+            return length;
+        }
+
+        private void visit(int node) {
+            if (visits[node]++ == 0) {
+                visited[visitedCount++] = node;
+            }
+        }
+
+        private int sampleNeighbor(int node) {
+            int start = graph.offsets[node];
+            int position = start + random.nextInt(graph.offsets[node + 1] - start);
+            if (random.nextDouble() >= aliasProbability[position]) {
+                position = alias[position];
+            }
+            return graph.neighbors[position];
+        }
+
+        // Draws weighted neighbors until one passes the node2vec bias: 1/p for going back to
+        // previous, 1 for a neighbor of previous and 1/q for moving further away
+        private int sampleNode2Vec(int node, int previous, WalkSettings settings, double maxBias) {
+            while (true) {
+                int candidate = sampleNeighbor(node);
+                double bias;
+                if (candidate == previous) {
+                    bias = 1.0 / settings.p;
+                } else if (Arrays.binarySearch(graph.neighbors, graph.offsets[previous],
+                        graph.offsets[previous + 1], candidate) >= 0) {
+                    bias = 1.0;
+                } else {
+                    bias = 1.0 / settings.q;
+                }
+                if (random.nextDouble() * maxBias < bias) {
+                    return candidate;
+                }
+            }
+        }
+    }
+
+    // Builds a dictionary of the graph's URIs with the same ids as the graph
+    static NodeDictionary dictionaryOf(CsrGraph graph) {
+        NodeDictionary nodes = new NodeDictionary();
+        for (String uri : graph.uris) {
+            nodes.idOf(uri);
+        }
+        return nodes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("g")
+                .longOpt("graph")
+                .desc("Graph written by GraphMLGenerator, in GRAPHML or BIN format")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("u")
+                .longOpt("track")
+                .desc("URI of the track to start walking from")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("x")
+                .longOpt("exclude")
+                .desc("Comma-separated URIs never to recommend, e.g. the rest of the playlist "
+                        + "(the start track is always excluded)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("w")
+                .longOpt("walk")
+                .desc("Walk type: WEIGHTED, RESTART or NODE2VEC (default WEIGHTED)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("n")
+                .longOpt("steps")
+                .desc("Number of steps per walk (default 5)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("k")
+                .longOpt("top-n")
+                .desc("Number of tracks to recommend (default 1)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("r")
+                .longOpt("restart-prob")
+                .desc("Restart probability of RESTART walks (default 0.15)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("p")
+                .desc("Node2vec return parameter (default 1.0)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("q")
+                .desc("Node2vec in-out parameter (default 1.0)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("seed")
+                .desc("Random seed (default 42)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("repeat")
+                .desc("Repeat the walk this many times and report the step throughput (default 1)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("RandomWalkRecommender", options);
+                System.exit(0);
+            }
+            if (!cmd.hasOption("graph") || !cmd.hasOption("track")) {
+                System.err.println("Error: --graph and --track are required");
+                formatter.printHelp("RandomWalkRecommender", options);
+                System.exit(1);
+            }
+
+            String graphPath = cmd.getOptionValue("graph");
+            String trackUri = cmd.getOptionValue("track");
+            WalkMode walkMode = cmd.hasOption("walk") ?
+                WalkMode.valueOf(cmd.getOptionValue("walk").toUpperCase()) :
+                DEFAULT_WALK_MODE;
+            WalkSettings settings = new WalkSettings(walkMode,
+                    Integer.parseInt(cmd.getOptionValue("steps", String.valueOf(DEFAULT_STEPS))),
+                    Double.parseDouble(cmd.getOptionValue("restart-prob", String.valueOf(DEFAULT_RESTART_PROBABILITY))),
+                    Double.parseDouble(cmd.getOptionValue("p", String.valueOf(DEFAULT_P))),
+                    Double.parseDouble(cmd.getOptionValue("q", String.valueOf(DEFAULT_Q))));
+            int topN = Integer.parseInt(cmd.getOptionValue("top-n", String.valueOf(DEFAULT_TOP_N)));
+            long seed = Long.parseLong(cmd.getOptionValue("seed", String.valueOf(DEFAULT_SEED)));
+            int repeat = Integer.parseInt(cmd.getOptionValue("repeat", String.valueOf(DEFAULT_REPEAT)));
+
+            if (settings.steps < 0 || topN < 1 || repeat < 1 || settings.p <= 0 || settings.q <= 0) {
+                System.err.println("Error: steps must not be negative, top-n and repeat must be at least 1, "
+                        + "and p and q must be positive");
+                System.exit(1);
+            }
+
+            long loadStart = System.nanoTime();
+            CsrGraph graph = CsrGraph.read(graphPath);
+            RandomWalkRecommender recommender = new RandomWalkRecommender(graph);
+            NodeDictionary nodes = dictionaryOf(graph);
+            System.out.println("Loaded " + graph.nodeCount() + " nodes and " + graph.edgeCount() + " edges in "
+                    + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+
+            int start = nodes.find(trackUri);
+            if (start < 0) {
+                System.err.println("Error: Track not found in the graph: " + trackUri);
+                System.exit(1);
+            }
+            String[] excludeUris = cmd.hasOption("exclude") ? cmd.getOptionValue("exclude").split(",") : new String[0];
+            int[] exclude = new int[excludeUris.length + 1];
+            int excludeCount = 0;
+            exclude[excludeCount++] = start;
+            for (String uri : excludeUris) {
+                int id = nodes.find(uri.trim());
+                if (id >= 0) {
+                    exclude[excludeCount++] = id;
+                }
+            }
+
+            Walker walker = recommender.newWalker(seed);
+            int[] recommended = new int[topN];
+            int found = 0;
+            long walkStart = System.nanoTime();
+            for (int i = 0; i < repeat; i++) {
+                found = walker.recommend(start, settings, exclude, excludeCount, recommended);
+            }
+            long elapsed = System.nanoTime() - walkStart;
+
+            System.out.println("Recommendations (" + walkMode + " walk, " + settings.steps + " steps):");
+            for (int i = 0; i < found; i++) {
+                System.out.println(graph.uris[recommended[i]]);
+            }
+            if (repeat > 1) {
+                System.out.printf("%d walks, %d steps in %.3f s (%.2f million steps/s)%n", repeat,
+                        walker.stepCount(), elapsed / 1e9, walker.stepCount() * 1e3 / Math.max(1, elapsed));
+            }
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("RandomWalkRecommender", options);
+            System.exit(1);
+        }
+    }
+}
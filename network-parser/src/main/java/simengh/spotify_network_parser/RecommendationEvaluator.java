@@ -0,0 +1,340 @@
+package simengh.spotify_network_parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.apache.commons.cli.*;
+
+// Scores random-walk recommendations against held-out playlists the way
+// final/network_analysis.ipynb does. For every playlist with at least one track in the graph,
+// a random one of those tracks seeds a walk; the recommendation succeeds if any recommended
+// track is in the playlist. Accuracy is the mean success, and the penalized score is the
+// mean of success divided by the mean degree of the recommended tracks.
+// Playlists are walked in parallel, but each one draws its seed track and walk from a
+// generator seeded by (seed, pid) and results are summed in playlist order, so the scores
+// depend only on the seed and never on the thread count. Every list-valued option is swept
+// over all combinations while the graph and the playlists are loaded only once.
+public class RecommendationEvaluator {
+    private static final String DEFAULT_TEST_FILE = "../dataset/data/mpd.slice.999000-999999.json";
+    private static final String DEFAULT_WALK_MODES = "WEIGHTED";
+    private static final String DEFAULT_STEPS = "5";
+    private static final String DEFAULT_TOP_N = "1";
+    private static final String DEFAULT_RESTART_PROBABILITIES = "0.15";
+    private static final String DEFAULT_P = "1.0";
+    private static final String DEFAULT_Q = "1.0";
+    private static final long DEFAULT_SEED = 42;
+
+    private final RandomWalkRecommender recommender;
+    private final int[] pids;
+    // Track ids of each held-out playlist; ids not below the graph's node count are unknown to it
+    private final int[][] tracks;
+    private final ThreadLocal<RandomWalkRecommender.Walker> walkers;
+
+    static class Result {
+        int testablePlaylists;
+        double accuracy;
+        double meanRecommendedDegree;
+        double meanScore;
+    }
+
+    RecommendationEvaluator(RandomWalkRecommender recommender, int[] pids, int[][] tracks) {
+        this.recommender = recommender;
+        this.pids = pids;
+        this.tracks = tracks;
+        walkers = ThreadLocal.withInitial(() -> recommender.newWalker(0));
+    }
+
+    // Reads held-out playlists with the generator's slice reader, interning tracks into a copy
+    // of the graph's dictionary so that known tracks get their graph ids
+    static RecommendationEvaluator load(RandomWalkRecommender recommender, List<String> testFiles,
+                                        GraphMLGenerator.InputMode inputMode) throws IOException {
+        NodeDictionary nodes = RandomWalkRecommender.dictionaryOf(recommender.graph);
+        PlaylistReader reader = inputMode.createReader(GraphMLGenerator.NodeType.TRACK, nodes);
+        List<Integer> pids = new ArrayList<>();
+        List<int[]> tracks = new ArrayList<>();
+        for (String testFile : testFiles) {
+            reader.read(testFile, null, playlist -> {
+                pids.add(playlist.pid);
+                tracks.add(Arrays.copyOf(playlist.ids[0], playlist.trackCount));
+            });
+        }
+        return new RecommendationEvaluator(recommender,
+                pids.stream().mapToInt(Integer::intValue).toArray(), tracks.toArray(new int[0][]));
+    }
+
+    int playlistCount() {
+        return pids.length;
+    }
+
+    Result evaluate(RandomWalkRecommender.WalkSettings settings, int topN, long seed, ForkJoinPool pool)
+            throws IOException {
+        int playlistCount = pids.length;
+        // Per playlist: -1 if it has no track in the graph, otherwise whether it succeeded,
+        // and the mean degree of its recommendations
+        byte[] success = new byte[playlistCount];
+        double[] degrees = new double[playlistCount];
+        try {
+            pool.submit(() -> IntStream.range(0, playlistCount).parallel().forEach(i -> {
+                RandomWalkRecommender.Walker walker = walkers.get();
+                walker.setSeed(playlistSeed(seed, pids[i]));
+                success[i] = evaluatePlaylist(walker, tracks[i], settings, topN, degrees, i);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to evaluate recommendations", e.getCause());
+        }
+
+        Result result = new Result();
+        double successSum = 0;
+        double degreeSum = 0;
+        double scoreSum = 0;
+        for (int i = 0; i < playlistCount; i++) {
+            if (success[i] < 0) {
+                continue;
+            }
+            result.testablePlaylists++;
+            successSum += success[i];
+            degreeSum += degrees[i];
+            if (success[i] > 0) {
+                scoreSum += 1.0 / degrees[i];
+            }
+        }
+        if (result.testablePlaylists > 0) {
+            result.accuracy = successSum / result.testablePlaylists;
+            result.meanRecommendedDegree = degreeSum / result.testablePlaylists;
+            result.meanScore = scoreSum / result.testablePlaylists;
+        }
+        return result;
+    }
+
+    private byte evaluatePlaylist(RandomWalkRecommender.Walker walker, int[] playlist,
+                                  RandomWalkRecommender.WalkSettings settings, int topN, double[] degrees, int index) {
+        CsrGraph graph = recommender.graph;
+        int inGraph = 0;
+        for (int track : playlist) {
+            if (track < graph.nodeCount()) {
+                inGraph++;
+            }
+        }
+        if (inGraph == 0) {
+            return -1;
+        }
+        // Choose uniformly among the playlist's tracks that are in the graph, duplicates
+        // included, as random.choice does in the notebook
+        int choice = walker.nextInt(inGraph);
+        int start = -1;
+        for (int track : playlist) {
+            if (track < graph.nodeCount() && choice-- == 0) {
+                start = track;
+                break;
+            }
+        }
+
+        int[] recommended = new int[topN];
+        int found = walker.recommend(start, settings, new int[]{start}, 1, recommended);
+        if (found == 0) {
+            return 0;
+        }
+        long degreeSum = 0;
+        boolean hit = false;
+        for (int r = 0; r < found; r++) {
+            degreeSum += graph.degree(recommended[r]);
+            for (int track : playlist) {
+                if (track == recommended[r]) {
+                    hit = true;
+                    break;
+                }
+            }
+        }
+        degrees[index] = (double) degreeSum / found;
+        return (byte) (hit ? 1 : 0);
+    }
+
+    // Combines the run seed and the playlist id; SplittableRandom mixes its seed, so nearby
+    // values still give independent streams
+    private static long playlistSeed(long seed, int pid) {
+        return seed * 0x9E3779B97F4A7C15L + pid;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("g")
+                .longOpt("graph")
+                .desc("Graph written by GraphMLGenerator, in GRAPHML or BIN format")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("e")
+                .longOpt("test")
+                .desc("Comma-separated held-out slice files (default " + DEFAULT_TEST_FILE + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("w")
+                .longOpt("walk")
+                .desc("Comma-separated walk types to evaluate: WEIGHTED, RESTART, NODE2VEC (default WEIGHTED)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("n")
+                .longOpt("steps")
+                .desc("Comma-separated numbers of steps per walk (default 5)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("k")
+                .longOpt("top-n")
+                .desc("Comma-separated numbers of tracks to recommend (default 1)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("r")
+                .longOpt("restart-prob")
+                .desc("Comma-separated restart probabilities of RESTART walks (default 0.15)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("p")
+                .desc("Comma-separated node2vec return parameters (default 1.0)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("q")
+                .desc("Comma-separated node2vec in-out parameters (default 1.0)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("seed")
+                .desc("Random seed (default 42)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of worker threads (default: all processors)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("i")
+                .longOpt("input-mode")
+                .desc("How test files are read: STREAM or MMAP (default STREAM)")
+                .hasArg()
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("RecommendationEvaluator", options);
+                System.exit(0);
+            }
+            if (!cmd.hasOption("graph")) {
+                System.err.println("Error: --graph is required");
+                formatter.printHelp("RecommendationEvaluator", options);
+                System.exit(1);
+            }
+
+            String graphPath = cmd.getOptionValue("graph");
+            List<String> testFiles = Arrays.asList(cmd.getOptionValue("test", DEFAULT_TEST_FILE).split(","));
+            String[] walkModes = cmd.getOptionValue("walk", DEFAULT_WALK_MODES).split(",");
+            int[] stepCounts = parseInts(cmd.getOptionValue("steps", DEFAULT_STEPS));
+            int[] topNs = parseInts(cmd.getOptionValue("top-n", DEFAULT_TOP_N));
+            double[] restartProbabilities = parseDoubles(cmd.getOptionValue("restart-prob", DEFAULT_RESTART_PROBABILITIES));
+            double[] ps = parseDoubles(cmd.getOptionValue("p", DEFAULT_P));
+            double[] qs = parseDoubles(cmd.getOptionValue("q", DEFAULT_Q));
+            long seed = Long.parseLong(cmd.getOptionValue("seed", String.valueOf(DEFAULT_SEED)));
+            int threads = Integer.parseInt(cmd.getOptionValue("threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            GraphMLGenerator.InputMode inputMode = cmd.hasOption("input-mode") ?
+                GraphMLGenerator.InputMode.valueOf(cmd.getOptionValue("input-mode").toUpperCase()) :
+                GraphMLGenerator.InputMode.STREAM;
+
+            if (threads < 1) {
+                System.err.println("Error: Number of threads must be at least 1");
+                System.exit(1);
+            }
+            for (int topN : topNs) {
+                if (topN < 1) {
+                    System.err.println("Error: top-n must be at least 1");
+                    System.exit(1);
+                }
+            }
+            for (int steps : stepCounts) {
+                if (steps < 0) {
+                    System.err.println("Error: steps must not be negative");
+                    System.exit(1);
+                }
+            }
+            // A non-positive p or q would leave the node2vec rejection sampler unable to accept
+            for (double p : ps) {
+                if (p <= 0) {
+                    System.err.println("Error: p must be positive");
+                    System.exit(1);
+                }
+            }
+            for (double q : qs) {
+                if (q <= 0) {
+                    System.err.println("Error: q must be positive");
+                    System.exit(1);
+                }
+            }
+
+            long loadStart = System.nanoTime();
+            CsrGraph graph = CsrGraph.read(graphPath);
+            RandomWalkRecommender recommender = new RandomWalkRecommender(graph);
+            RecommendationEvaluator evaluator = load(recommender, testFiles, inputMode);
+            System.out.println("Loaded " + graph.nodeCount() + " nodes, " + graph.edgeCount() + " edges and "
+                    + evaluator.playlistCount() + " test playlists in "
+                    + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+            System.out.println("walk\tsteps\ttop_n\trestart\tp\tq\ttestable\taccuracy\tmean_degree\tmean_score\tseconds");
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (String walkMode : walkModes) {
+                    RandomWalkRecommender.WalkMode mode = RandomWalkRecommender.WalkMode.valueOf(walkMode.trim().toUpperCase());
+                    // Only sweep the parameters the walk type uses
+                    double[] modeRestarts = mode == RandomWalkRecommender.WalkMode.RESTART
+                            ? restartProbabilities : new double[]{restartProbabilities[0]};
+                    double[] modePs = mode == RandomWalkRecommender.WalkMode.NODE2VEC ? ps : new double[]{ps[0]};
+                    double[] modeQs = mode == RandomWalkRecommender.WalkMode.NODE2VEC ? qs : new double[]{qs[0]};
+                    for (int steps : stepCounts) {
+                        for (int topN : topNs) {
+                            for (double restart : modeRestarts) {
+                                for (double p : modePs) {
+                                    for (double q : modeQs) {
+                                        RandomWalkRecommender.WalkSettings settings =
+                                                new RandomWalkRecommender.WalkSettings(mode, steps, restart, p, q);
+                                        long start = System.nanoTime();
+                                        Result result = evaluator.evaluate(settings, topN, seed, pool);
+                                        System.out.printf("%s\t%d\t%d\t%s\t%s\t%s\t%d\t%.2f%%\t%.2f\t%.3e\t%.2f%n",
+                                                mode, steps, topN, restart, p, q, result.testablePlaylists,
+                                                result.accuracy * 100, result.meanRecommendedDegree, result.meanScore,
+                                                (System.nanoTime() - start) / 1e9);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("RecommendationEvaluator", options);
+            System.exit(1);
+        }
+    }
+
+    private static int[] parseInts(String values) {
+        return Arrays.stream(values.split(",")).mapToInt(value -> Integer.parseInt(value.trim())).toArray();
+    }
+
+    private static double[] parseDoubles(String values) {
+        return Arrays.stream(values.split(",")).mapToDouble(value -> Double.parseDouble(value.trim())).toArray();
+    }
+}
@@ -0,0 +1,427 @@
+package simengh.spotify_network_parser;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.cli.*;
+
+// HTTP service for the random-walk recommendations of RandomWalkRecommender. The graph and
+// its alias tables are loaded once at startup; each request thread then walks with its own
+// Walker, so serving a request allocates little beyond the response.
+//
+//   GET /recommend?tracks=uri1,uri2&n=10&walk=RESTART&steps=5&restart=0.15
+//       walks once from every known seed track and returns the n most visited other
+//       tracks as JSON, with any seed URIs that are not in the graph under "unknown"
+//   GET /metrics
+//       request counts, cache hit rate and latency percentiles of /recommend, as JSON
+//
+// Results are cached in a bounded LRU map keyed by the walk settings and the sorted,
+// deduplicated seed ids, so the same playlist in any order or with repeated tracks hits
+// the same entry. The cache is split into stripes by key hash, each with its own lock
+// and LRU order, so concurrent requests rarely wait on one another. Each walk is seeded from that key, so a cached result is exactly what a
+// fresh walk would return.
+public class RecommendationServer {
+    // Default values
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_CACHE_SIZE = 100_000;
+    private static final int DEFAULT_TOP_N = 10;
+    private static final int DEFAULT_STEPS = 5;
+    private static final double DEFAULT_RESTART_PROBABILITY = 0.15;
+    private static final long DEFAULT_SEED = 42;
+    // Limits that keep a single request from occupying a thread for long
+    private static final int MAX_TOP_N = 1000;
+    private static final int MAX_STEPS = 10_000;
+    private static final int MAX_SEEDS = 1000;
+
+    private final CsrGraph graph;
+    private final NodeDictionary nodes;
+    private final ThreadLocal<RandomWalkRecommender.Walker> walkers;
+    private final long seed;
+    private final ResultCache cache;
+    private final Gson gson = new Gson();
+    private final long startNanos = System.nanoTime();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder badRequests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    // Recommended track URIs by request key. Each stripe holds its share of the capacity in
+    // an access-ordered map, least recently used first, and evicts from its own end.
+    private static class ResultCache {
+        private static final int STRIPES = 64;
+
+        final int capacity;
+        private final Stripe[] stripes;
+
+        private static class Stripe {
+            final LinkedHashMap<String, String[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+            final int capacity;
+
+            Stripe(int capacity) {
+                this.capacity = capacity;
+            }
+        }
+
+        ResultCache(int capacity) {
+            this.capacity = capacity;
+            stripes = new Stripe[Math.max(1, Math.min(STRIPES, capacity))];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe(capacity / stripes.length + (i < capacity % stripes.length ? 1 : 0));
+            }
+        }
+
+        String[] get(String key) {
+            Stripe stripe = stripeOf(key);
+            synchronized (stripe) {
+                return stripe.entries.get(key);
+            }
+        }
+
+        void put(String key, String[] value) {
+            Stripe stripe = stripeOf(key);
+            synchronized (stripe) {
+                stripe.entries.put(key, value);
+                if (stripe.entries.size() > stripe.capacity) {
+                    Iterator<String> eldest = stripe.entries.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    size += stripe.entries.size();
+                }
+            }
+            return size;
+        }
+
+        private Stripe stripeOf(String key) {
+            return stripes[((key.hashCode() * 0x9E3779B9) >>> 16) % stripes.length];
+        }
+    }
+
+    // A request that cannot be served as asked, answered with 400 and the message
+    private static class BadRequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+
+    RecommendationServer(CsrGraph graph, int cacheSize, long seed) {
+        this.graph = graph;
+        this.nodes = RandomWalkRecommender.dictionaryOf(graph);
+        this.seed = seed;
+        this.cache = new ResultCache(cacheSize);
+        RandomWalkRecommender recommender = new RandomWalkRecommender(graph);
+        walkers = ThreadLocal.withInitial(() -> recommender.newWalker(seed));
+    }
+
+    HttpServer start(int port, ExecutorService executor) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/recommend", this::handleRecommend);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    private void handleRecommend(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        requests.increment();
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                throw new BadRequestException("Only GET is supported");
+            }
+            Map<String, Object> response = recommend(parseQuery(exchange.getRequestURI().getRawQuery()));
+            send(exchange, 200, response);
+        } catch (BadRequestException e) {
+            badRequests.increment();
+            send(exchange, 400, Map.of("error", e.getMessage()));
+        } catch (RuntimeException e) {
+            errors.increment();
+            send(exchange, 500, Map.of("error", "Internal error: " + e));
+        } finally {
+            latency.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    Map<String, Object> recommend(Map<String, String> query) throws BadRequestException {
+        String tracks = query.get("tracks");
+        if (tracks == null || tracks.isBlank()) {
+            throw new BadRequestException("Missing tracks parameter");
+        }
+        int topN = intParameter(query, "n", DEFAULT_TOP_N, 1, MAX_TOP_N);
+        int steps = intParameter(query, "steps", DEFAULT_STEPS, 0, MAX_STEPS);
+        RandomWalkRecommender.WalkMode mode;
+        try {
+            mode = RandomWalkRecommender.WalkMode.valueOf(query.getOrDefault("walk", "WEIGHTED").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown walk type: " + query.get("walk"));
+        }
+        if (mode == RandomWalkRecommender.WalkMode.NODE2VEC) {
+            throw new BadRequestException("Walk type must be WEIGHTED or RESTART");
+        }
+        double restartProbability = mode == RandomWalkRecommender.WalkMode.RESTART
+                ? doubleParameter(query, "restart", DEFAULT_RESTART_PROBABILITY)
+                : 0;
+
+        String[] uris = tracks.split(",");
+        if (uris.length > MAX_SEEDS) {
+            throw new BadRequestException("At most " + MAX_SEEDS + " tracks are allowed");
+        }
+        int[] seeds = new int[uris.length];
+        int seedCount = 0;
+        List<String> unknown = new ArrayList<>();
+        for (String uri : uris) {
+            int id = nodes.find(uri.trim());
+            if (id >= 0) {
+                seeds[seedCount++] = id;
+            } else if (!uri.isBlank()) {
+                unknown.add(uri.trim());
+            }
+        }
+        Arrays.sort(seeds, 0, seedCount);
+        int distinct = 0;
+        for (int i = 0; i < seedCount; i++) {
+            if (distinct == 0 || seeds[distinct - 1] != seeds[i]) {
+                seeds[distinct++] = seeds[i];
+            }
+        }
+        seedCount = distinct;
+
+        StringBuilder key = new StringBuilder()
+                .append(mode).append(':').append(steps).append(':').append(restartProbability)
+                .append(':').append(topN);
+        for (int i = 0; i < seedCount; i++) {
+            key.append(':').append(seeds[i]);
+        }
+        String cacheKey = key.toString();
+
+        String[] recommended = cache.get(cacheKey);
+        if (recommended != null) {
+            cacheHits.increment();
+        } else {
+            RandomWalkRecommender.Walker walker = walkers.get();
+            walker.setSeed(seed * 0x9E3779B97F4A7C15L + cacheKey.hashCode());
+            int[] out = new int[topN];
+            int found = walker.recommend(seeds, seedCount,
+                    new RandomWalkRecommender.WalkSettings(mode, steps, restartProbability, 1.0, 1.0),
+                    seeds, seedCount, out);
+            recommended = new String[found];
+            for (int i = 0; i < found; i++) {
+                recommended[i] = graph.uris[out[i]];
+            }
+            cache.put(cacheKey, recommended);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("tracks", recommended);
+        response.put("unknown", unknown);
+        return response;
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        send(exchange, 200, metrics());
+    }
+
+    Map<String, Object> metrics() {
+        double uptime = (System.nanoTime() - startNanos) / 1e9;
+        long requestCount = requests.sum();
+        long hits = cacheHits.sum();
+        long served = requestCount - badRequests.sum() - errors.sum();
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("uptimeSeconds", uptime);
+        json.put("requests", requestCount);
+        json.put("requestsPerSecond", uptime > 0 ? requestCount / uptime : 0.0);
+        json.put("badRequests", badRequests.sum());
+        json.put("errors", errors.sum());
+
+        Map<String, Object> cacheStats = new LinkedHashMap<>();
+        cacheStats.put("entries", cache.size());
+        cacheStats.put("capacity", cache.capacity);
+        cacheStats.put("hits", hits);
+        cacheStats.put("misses", Math.max(0, served - hits));
+        cacheStats.put("hitRate", served > 0 ? (double) hits / served : 0.0);
+        json.put("cache", cacheStats);
+
+        Map<String, Object> latencyMillis = new LinkedHashMap<>();
+        latencyMillis.put("mean", latency.mean() / 1e3);
+        latencyMillis.put("p50", latency.percentile(0.50) / 1e3);
+        latencyMillis.put("p90", latency.percentile(0.90) / 1e3);
+        latencyMillis.put("p99", latency.percentile(0.99) / 1e3);
+        latencyMillis.put("p999", latency.percentile(0.999) / 1e3);
+        latencyMillis.put("max", latency.max() / 1e3);
+        json.put("latencyMillis", latencyMillis);
+        return json;
+    }
+
+    private void send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue, int min, int max)
+            throws BadRequestException {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new BadRequestException(name + " must be an integer from " + min + " to " + max);
+    }
+
+    private static double doubleParameter(Map<String, String> query, String name, double defaultValue)
+            throws BadRequestException {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            if (parsed >= 0 && parsed <= 1) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new BadRequestException(name + " must be a probability from 0 to 1");
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("g")
+                .longOpt("graph")
+                .desc("Graph written by GraphMLGenerator, in GRAPHML or BIN format")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("p")
+                .longOpt("port")
+                .desc("Port to listen on (default " + DEFAULT_PORT + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("c")
+                .longOpt("cache-size")
+                .desc("Number of results kept in the LRU cache, 0 to disable it (default " + DEFAULT_CACHE_SIZE + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of request threads (default: all processors)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("seed")
+                .desc("Random seed (default " + DEFAULT_SEED + ")")
+                .hasArg()
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("RecommendationServer", options);
+                System.exit(0);
+            }
+            if (!cmd.hasOption("graph")) {
+                System.err.println("Error: --graph is required");
+                formatter.printHelp("RecommendationServer", options);
+                System.exit(1);
+            }
+
+            int port = Integer.parseInt(cmd.getOptionValue("port", String.valueOf(DEFAULT_PORT)));
+            int cacheSize = Integer.parseInt(cmd.getOptionValue("cache-size", String.valueOf(DEFAULT_CACHE_SIZE)));
+            int threads = Integer.parseInt(cmd.getOptionValue("threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            long seed = Long.parseLong(cmd.getOptionValue("seed", String.valueOf(DEFAULT_SEED)));
+
+            if (threads < 1 || cacheSize < 0) {
+                System.err.println("Error: threads must be at least 1 and cache-size must not be negative");
+                System.exit(1);
+            }
+
+            long loadStart = System.nanoTime();
+            CsrGraph graph = CsrGraph.read(cmd.getOptionValue("graph"));
+            RecommendationServer service = new RecommendationServer(graph, cacheSize, seed);
+            System.out.println("Loaded " + graph.nodeCount() + " nodes and " + graph.edgeCount() + " edges in "
+                    + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+
+            AtomicInteger threadNumber = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "recommend-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            HttpServer server = service.start(port, executor);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                executor.shutdown();
+            }));
+            System.out.println("Listening on port " + server.getAddress().getPort() + " with " + threads
+                    + " request threads");
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("RecommendationServer", options);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package simengh.spotify_network_parser;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+// Counters and stage timers of one generator run. Counters are updated once per playlist or
+// file, never per pair, so they stay off the inner loop. A snapshot of everything, with
+// rates, heap and GC figures, is written as JSON to the metrics file every interval while
+// the run is in progress and once more at the end. Each stage is also a JFR event, so a
+// flight recording shows the stages next to GC and allocation activity.
+class RunMetrics implements Closeable {
+    final LongAdder filesRead = new LongAdder();
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder playlists = new LongAdder();
+    final LongAdder tracks = new LongAdder();
+    final LongAdder pairs = new LongAdder();
+
+    private final Path outputFile;
+    private final long startNanos = System.nanoTime();
+    private final List<Stage> stages = new ArrayList<>();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
+    private final ScheduledExecutorService reporter;
+    private volatile LongSupplier edgeCount = () -> 0;
+    private volatile LongSupplier tableCapacity = () -> 0;
+    // One entry per graph written, in the order they were recorded; guarded by itself
+    private final List<Map<String, Object>> outputs = new ArrayList<>();
+
+    @Name("simengh.spotify_network_parser.Stage")
+    @Label("Generator Stage")
+    @Category("Spotify Network Parser")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Playlists")
+        long playlists;
+
+        @Label("Pairs")
+        long pairs;
+    }
+
+    // One timed phase of the run, such as parsing or writing
+    class Stage implements AutoCloseable {
+        final String name;
+        final long startNanos = System.nanoTime();
+        final long startPlaylists = playlists.sum();
+        final long startPairs = pairs.sum();
+        final StageEvent event = new StageEvent();
+        volatile long endNanos;
+
+        Stage(String name) {
+            this.name = name;
+            event.stage = name;
+            event.begin();
+        }
+
+        double seconds() {
+            long end = endNanos;
+            return ((end != 0 ? end : System.nanoTime()) - startNanos) / 1e9;
+        }
+
+        @Override
+        public void close() {
+            endNanos = System.nanoTime();
+            event.playlists = playlists.sum() - startPlaylists;
+            event.pairs = pairs.sum() - startPairs;
+            event.commit();
+        }
+    }
+
+    // Writes to outputFile every intervalSeconds if both are given; a null outputFile only
+    // collects the figures, for the JFR events and the final summary
+    RunMetrics(String outputFile, int intervalSeconds) {
+        this.outputFile = outputFile != null ? Paths.get(outputFile).toAbsolutePath() : null;
+        if (this.outputFile != null && intervalSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            reporter = null;
+        }
+    }
+
+    Stage stage(String name) {
+        Stage stage = new Stage(name);
+        synchronized (stages) {
+            stages.add(stage);
+        }
+        return stage;
+    }
+
+    // Work timed as one stage, returning a result
+    interface StageBody<T> {
+        T run() throws IOException;
+    }
+
+    // Work timed as one stage, run for its effects
+    interface StageAction {
+        void run() throws IOException;
+    }
+
+    // Runs body as the stage called name, which is closed however body ends
+    <T> T time(String name, StageBody<T> body) throws IOException {
+        Stage stage = stage(name);
+        try {
+            return body.run();
+        } finally {
+            stage.close();
+        }
+    }
+
+    void time(String name, StageAction action) throws IOException {
+        time(name, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Wraps a playlist handler so that it counts what passes through it
+    PlaylistReader.Handler counting(PlaylistReader.Handler handler) {
+        return playlist -> {
+            long count = playlist.trackCount;
+            playlists.increment();
+            tracks.add(count);
+            pairs.add(count * (count - 1) / 2);
+            handler.playlist(playlist);
+        };
+    }
+
+    // Edge table gauges, read while workers are still filling the tables, so the values
+    // are approximate until the workers are done
+    void trackEdgeTables(LongSupplier edgeCount, LongSupplier tableCapacity) {
+        this.edgeCount = edgeCount;
+        this.tableCapacity = tableCapacity;
+    }
+
+    void recordOutput(String graph, long nodeCount, long edgesWritten, Path output) throws IOException {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("graph", graph);
+        entry.put("path", output.toAbsolutePath().toString());
+        entry.put("nodes", nodeCount);
+        entry.put("edges", edgesWritten);
+        entry.put("bytes", sizeOf(output));
+        synchronized (outputs) {
+            outputs.add(entry);
+        }
+    }
+
+    // Writes the final snapshot and stops periodic reporting
+    @Override
+    public void close() throws IOException {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (outputFile != null) {
+            write(snapshot(true));
+        }
+    }
+
+    Map<String, Object> snapshot(boolean complete) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        json.put("complete", complete);
+        json.put("elapsedSeconds", elapsed);
+
+        Map<String, Double> stageSeconds = new LinkedHashMap<>();
+        String currentStage = null;
+        synchronized (stages) {
+            for (Stage stage : stages) {
+                stageSeconds.merge(stage.name, stage.seconds(), Double::sum);
+                if (stage.endNanos == 0) {
+                    currentStage = stage.name;
+                }
+            }
+        }
+        json.put("currentStage", currentStage);
+        json.put("stageSeconds", stageSeconds);
+
+        double parseSeconds = stageSeconds.getOrDefault("parse", 0.0);
+        double writeSeconds = stageSeconds.getOrDefault("write", 0.0);
+        Map<String, Object> input = new LinkedHashMap<>();
+        input.put("files", filesRead.sum());
+        input.put("bytes", bytesRead.sum());
+        input.put("playlists", playlists.sum());
+        input.put("tracks", tracks.sum());
+        input.put("pairs", pairs.sum());
+        input.put("megabytesPerSecond", rate(bytesRead.sum() / 1e6, parseSeconds));
+        input.put("playlistsPerSecond", rate(playlists.sum(), parseSeconds));
+        input.put("pairsPerSecond", rate(pairs.sum(), parseSeconds));
+        json.put("input", input);
+
+        long edges = edgeCount.getAsLong();
+        long capacity = tableCapacity.getAsLong();
+        Map<String, Object> edgeTable = new LinkedHashMap<>();
+        edgeTable.put("edges", edges);
+        edgeTable.put("capacity", capacity);
+        edgeTable.put("loadFactor", capacity > 0 ? (double) edges / capacity : 0.0);
+        json.put("edgeTable", edgeTable);
+
+        // The write stage covers every graph, so the rate is over all of them
+        List<Map<String, Object>> graphs;
+        synchronized (outputs) {
+            graphs = new ArrayList<>(outputs);
+        }
+        long bytesWritten = 0;
+        for (Map<String, Object> graph : graphs) {
+            bytesWritten += (Long) graph.get("bytes");
+        }
+        Map<String, Object> output = new LinkedHashMap<>();
+        output.put("bytes", bytesWritten);
+        output.put("megabytesPerSecond", rate(bytesWritten / 1e6, writeSeconds));
+        output.put("graphs", graphs);
+        json.put("output", output);
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Map<String, Object> memory = new LinkedHashMap<>();
+        memory.put("heapUsedBytes", heap.getUsed());
+        memory.put("heapCommittedBytes", heap.getCommitted());
+        memory.put("heapMaxBytes", heap.getMax());
+        json.put("heap", memory);
+
+        Map<String, Object> gc = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Map<String, Object> collections = new LinkedHashMap<>();
+            collections.put("count", collector.getCollectionCount());
+            collections.put("seconds", collector.getCollectionTime() / 1e3);
+            gc.put(collector.getName(), collections);
+        }
+        json.put("gc", gc);
+        return json;
+    }
+
+    private void report() {
+        try {
+            write(snapshot(false));
+        } catch (IOException | RuntimeException e) {
+            // A failed periodic report must not stop the run; the final one reports errors
+            System.err.println("Warning: could not write metrics: " + e.getMessage());
+        }
+    }
+
+    // Replaces the metrics file atomically, so readers never see a partial snapshot
+    private synchronized void write(Map<String, Object> snapshot) throws IOException {
+        Path temp = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            gson.toJson(snapshot, out);
+        }
+        Files.move(temp, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static double rate(double amount, double seconds) {
+        return seconds > 0 ? amount / seconds : 0.0;
+    }
+
+    // Size of a file, or of all files under a directory such as a NEO4J_CSV export
+    private static long sizeOf(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Files.exists(path) ? Files.size(path) : 0;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            long total = 0;
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                total += Files.size(file);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package simengh.spotify_network_parser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Records which input files a binary graph snapshot was built from, so that an incremental
+// run only parses files that are not in it yet. Stored next to the snapshot as
+// "<snapshot>.manifest": a "type <NodeType>" line followed by one input file name per line.
+// File names are stored without their directory so the data directory can move.
+class SnapshotManifest {
+    private static final String TYPE_PREFIX = "type ";
+
+    final String nodeType;
+    final Set<String> files = new TreeSet<>();
+
+    SnapshotManifest(String nodeType) {
+        this.nodeType = nodeType;
+    }
+
+    static Path pathFor(String snapshotPath) {
+        return Paths.get(snapshotPath + ".manifest");
+    }
+
+    static SnapshotManifest read(String snapshotPath) throws IOException {
+        Path path = pathFor(snapshotPath);
+        if (!Files.exists(path)) {
+            throw new IOException("No manifest for snapshot " + snapshotPath + " (expected " + path + ")");
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).startsWith(TYPE_PREFIX)) {
+            throw new IOException("Malformed snapshot manifest: " + path);
+        }
+        SnapshotManifest manifest = new SnapshotManifest(lines.get(0).substring(TYPE_PREFIX.length()));
+        for (String line : lines.subList(1, lines.size())) {
+            if (!line.isEmpty()) {
+                manifest.files.add(line);
+            }
+        }
+        return manifest;
+    }
+
+    boolean contains(String inputFile) {
+        return files.contains(fileName(inputFile));
+    }
+
+    void add(String inputFile) {
+        files.add(fileName(inputFile));
+    }
+
+    // Writes to a temporary file first so an interrupted run never leaves a manifest that
+    // lists files the snapshot does not contain
+    void write(String snapshotPath) throws IOException {
+        Path path = pathFor(snapshotPath).toAbsolutePath();
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(TYPE_PREFIX + nodeType);
+            writer.newLine();
+            for (String file : files) {
+                writer.write(file);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String fileName(String inputFile) {
+        return Paths.get(inputFile).getFileName().toString();
+    }
+}
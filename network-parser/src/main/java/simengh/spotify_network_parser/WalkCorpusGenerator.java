@@ -0,0 +1,340 @@
+package simengh.spotify_network_parser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.cli.*;
+import me.tongfei.progressbar.*;
+
+// Generates a node2vec walk corpus for embedding training over a graph written by
+// GraphMLGenerator. Walks use the alias tables of RandomWalkRecommender for the weighted
+// first-order step and rejection sampling for the p/q bias, so memory stays at two entries
+// per edge however many walks are taken. Output goes to
+//
+//   <prefix>.nodes.tsv[.gz]         "id<TAB>uri" for every node, in id order
+//   <prefix>.walks-NN.txt[.gz]      TEXT: one walk per line, ids separated by spaces, which
+//                                   word2vec and gensim read as sentences
+//   <prefix>.walks-NN.bin           BIN: one row of length int32 ids per walk, little-endian,
+//                                   padded with -1 if a walk stops early, so a shard reads as
+//                                   numpy.fromfile(path, '<i4').reshape(-1, length)
+//
+// As in node2vec, every round starts one walk at each node with neighbors, in a shuffled
+// order. The walks of all rounds are split into contiguous ranges, one per shard, and shards
+// are written in parallel. Each walk draws from a generator seeded by (seed, walk number),
+// so the corpus depends only on the seed and the shard count, never on the thread count.
+public class WalkCorpusGenerator {
+    enum OutputFormat {
+        TEXT,
+        BIN
+    }
+
+    // Default values, as in the node2vec reference implementation
+    private static final int DEFAULT_WALKS_PER_NODE = 10;
+    private static final int DEFAULT_LENGTH = 80;
+    private static final double DEFAULT_P = 1.0;
+    private static final double DEFAULT_Q = 1.0;
+    private static final OutputFormat DEFAULT_FORMAT = OutputFormat.TEXT;
+    private static final long DEFAULT_SEED = 42;
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    // Walks between progress bar updates
+    private static final int PROGRESS_STEP = 1024;
+
+    private final CsrGraph graph;
+    private final RandomWalkRecommender recommender;
+    private final RandomWalkRecommender.WalkSettings settings;
+    private final int walksPerNode;
+    private final long seed;
+    // Nodes that start walks, those with at least one neighbor
+    private final int[] starts;
+    private final LongAdder tokens = new LongAdder();
+
+    WalkCorpusGenerator(CsrGraph graph, int walksPerNode, int length, double p, double q, long seed) {
+        this.graph = graph;
+        this.recommender = new RandomWalkRecommender(graph);
+        this.settings = new RandomWalkRecommender.WalkSettings(RandomWalkRecommender.WalkMode.NODE2VEC,
+                length - 1, 0, p, q);
+        this.walksPerNode = walksPerNode;
+        this.seed = seed;
+        starts = IntStream.range(0, graph.nodeCount()).filter(v -> graph.degree(v) > 0).toArray();
+    }
+
+    long walkCount() {
+        return (long) walksPerNode * starts.length;
+    }
+
+    long tokenCount() {
+        return tokens.sum();
+    }
+
+    // Writes the node dictionary and every shard
+    void generate(String prefix, OutputFormat format, int shardCount, boolean compress, ForkJoinPool pool)
+            throws IOException {
+        Path base = Paths.get(prefix).toAbsolutePath();
+        Files.createDirectories(base.getParent());
+        try (OutputStream out = open(base, ".nodes.tsv", compress)) {
+            for (int id = 0; id < graph.nodeCount(); id++) {
+                out.write((id + "\t" + graph.uris[id] + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        try (ProgressBar progress = new ProgressBarBuilder()
+                .setTaskName("Walking")
+                .setInitialMax(walkCount())
+                .setUpdateIntervalMillis(1000)
+                .setStyle(ProgressBarStyle.ASCII)
+                .build()) {
+            pool.submit(() -> IntStream.range(0, shardCount).parallel().forEach(shard -> {
+                String suffix = shardCount == 1 ? ".walks" : String.format(".walks-%02d", shard);
+                suffix += format == OutputFormat.TEXT ? ".txt" : ".bin";
+                long first = walkCount() * shard / shardCount;
+                long end = walkCount() * (shard + 1) / shardCount;
+                try (OutputStream out = open(base, suffix, compress && format == OutputFormat.TEXT)) {
+                    writeShard(out, format, first, end, progress);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating walks", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Failed to generate walks", e.getCause());
+        }
+    }
+
+    // Writes walks [first, end) of the corpus; walk w is round w / starts.length, starting at
+    // that round's node at position w % starts.length
+    private void writeShard(OutputStream out, OutputFormat format, long first, long end, ProgressBar progress)
+            throws IOException {
+        RandomWalkRecommender.Walker walker = recommender.newWalker(seed);
+        int length = settings.steps + 1;
+        int[] path = new int[length];
+        // Longest text line: length ids of up to 10 digits, each followed by a separator
+        byte[] line = new byte[11 * length];
+        ByteBuffer row = ByteBuffer.allocate(4 * length).order(ByteOrder.LITTLE_ENDIAN);
+        int[] order = null;
+        long round = -1;
+        long shardTokens = 0;
+        int pending = 0;
+        for (long w = first; w < end; w++) {
+            if (w / starts.length != round) {
+                round = w / starts.length;
+                order = shuffledStarts(round, order);
+            }
+            walker.setSeed(seed * 0x9E3779B97F4A7C15L + w);
+            int walked = walker.walkPath(order[(int) (w % starts.length)], settings, path);
+            shardTokens += walked;
+
+            if (format == OutputFormat.TEXT) {
+                int offset = 0;
+                for (int i = 0; i < walked; i++) {
+                    offset = putNumber(line, path[i], offset);
+                    line[offset++] = (byte) (i + 1 < walked ? ' ' : '\n');
+                }
+                out.write(line, 0, offset);
+            } else {
+                row.clear();
+                for (int i = 0; i < length; i++) {
+                    row.putInt(i < walked ? path[i] : -1);
+                }
+                out.write(row.array());
+            }
+
+            if (++pending == PROGRESS_STEP) {
+                progress.stepBy(pending);
+                pending = 0;
+            }
+        }
+        progress.stepBy(pending);
+        tokens.add(shardTokens);
+    }
+
+    // The start nodes in the order of the given round, a Fisher-Yates shuffle seeded by it
+    private int[] shuffledStarts(long round, int[] order) {
+        if (order == null) {
+            order = new int[starts.length];
+        }
+        System.arraycopy(starts, 0, order, 0, starts.length);
+        SplittableRandom random = new SplittableRandom(seed * 0xC2B2AE3D27D4EB4FL + round);
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        return order;
+    }
+
+    private static OutputStream open(Path base, String suffix, boolean gzip) throws IOException {
+        Path path = Paths.get(base + suffix + (gzip ? ".gz" : ""));
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), STREAM_BUFFER_SIZE);
+        if (gzip) {
+            out = new GZIPOutputStream(out, STREAM_BUFFER_SIZE) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        }
+        return out;
+    }
+
+    // Formats a non-negative number into line at offset, returning the offset after it
+    private static int putNumber(byte[] line, int value, int offset) {
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            line[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Create command line options
+        Options options = new Options();
+        options.addOption(Option.builder("g")
+                .longOpt("graph")
+                .desc("Graph written by GraphMLGenerator, in GRAPHML or BIN format")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .desc("Path prefix of the node dictionary and walk files")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("r")
+                .longOpt("walks-per-node")
+                .desc("Number of walks started at every node (default " + DEFAULT_WALKS_PER_NODE + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("l")
+                .longOpt("length")
+                .desc("Number of nodes per walk, the start included (default " + DEFAULT_LENGTH + ")")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("p")
+                .longOpt("p")
+                .desc("Node2vec return parameter (default " + DEFAULT_P + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("q")
+                .longOpt("q")
+                .desc("Node2vec in-out parameter (default " + DEFAULT_Q + ")")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("f")
+                .longOpt("format")
+                .desc("Walk file format: TEXT or BIN (default TEXT)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("n")
+                .longOpt("shards")
+                .desc("Number of walk files (default: the number of threads)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder("z")
+                .longOpt("compress")
+                .desc("Gzip-compress the node dictionary and TEXT walk files")
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt("threads")
+                .desc("Number of worker threads (default: all processors)")
+                .hasArg()
+                .type(Number.class)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("seed")
+                .desc("Random seed (default " + DEFAULT_SEED + ")")
+                .hasArg()
+                .build());
+        options.addOption("h", "help", false, "Print this help message");
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+
+            if (cmd.hasOption("help")) {
+                formatter.printHelp("WalkCorpusGenerator", options);
+                System.exit(0);
+            }
+            if (!cmd.hasOption("graph") || !cmd.hasOption("output")) {
+                System.err.println("Error: --graph and --output are required");
+                formatter.printHelp("WalkCorpusGenerator", options);
+                System.exit(1);
+            }
+
+            String graphPath = cmd.getOptionValue("graph");
+            String outputPrefix = cmd.getOptionValue("output");
+            int walksPerNode = Integer.parseInt(cmd.getOptionValue("walks-per-node",
+                    String.valueOf(DEFAULT_WALKS_PER_NODE)));
+            int length = Integer.parseInt(cmd.getOptionValue("length", String.valueOf(DEFAULT_LENGTH)));
+            double p = Double.parseDouble(cmd.getOptionValue("p", String.valueOf(DEFAULT_P)));
+            double q = Double.parseDouble(cmd.getOptionValue("q", String.valueOf(DEFAULT_Q)));
+            OutputFormat format = cmd.hasOption("format") ?
+                OutputFormat.valueOf(cmd.getOptionValue("format").toUpperCase()) :
+                DEFAULT_FORMAT;
+            int threads = Integer.parseInt(cmd.getOptionValue("threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            int shards = Integer.parseInt(cmd.getOptionValue("shards", String.valueOf(threads)));
+            boolean compress = cmd.hasOption("compress");
+            long seed = Long.parseLong(cmd.getOptionValue("seed", String.valueOf(DEFAULT_SEED)));
+
+            if (walksPerNode < 1 || length < 1 || shards < 1 || threads < 1) {
+                System.err.println("Error: walks-per-node, length, shards and threads must be at least 1");
+                System.exit(1);
+            }
+            if (p <= 0 || q <= 0) {
+                System.err.println("Error: p and q must be positive");
+                System.exit(1);
+            }
+
+            long loadStart = System.nanoTime();
+            CsrGraph graph = CsrGraph.read(graphPath);
+            WalkCorpusGenerator generator = new WalkCorpusGenerator(graph, walksPerNode, length, p, q, seed);
+            System.out.println("Loaded " + graph.nodeCount() + " nodes and " + graph.edgeCount() + " edges in "
+                    + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+
+            long start = System.nanoTime();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                generator.generate(outputPrefix, format, shards, compress, pool);
+            } finally {
+                pool.shutdown();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("Wrote %d walks (%d nodes) to %d %s shard(s) in %.1f s "
+                    + "(%.0f walks/s)", generator.walkCount(), generator.tokenCount(), shards, format, seconds,
+                    generator.walkCount() / Math.max(seconds, 1e-9)));
+        } catch (ParseException e) {
+            System.err.println("Error parsing command line arguments: " + e.getMessage());
+            formatter.printHelp("WalkCorpusGenerator", options);
+            System.exit(1);
+        }
+    }
+}